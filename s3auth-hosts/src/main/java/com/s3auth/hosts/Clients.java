@@ -0,0 +1,398 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
+import com.jcabi.log.Logger;
+import com.jcabi.log.VerboseRunnable;
+import com.jcabi.log.VerboseThreads;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.validation.constraints.NotNull;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * Amazon S3 clients, shared by all buckets with the same credentials
+ * and region.
+ *
+ * <p>Every client has its own pool of HTTP connections to S3, that's why
+ * we keep clients between requests, so that connections (and their DNS,
+ * TCP and TLS setup) are reused. There are at most {@link #MAX} clients,
+ * the least recently used one is evicted when there are too many of them.
+ * A client not used for {@link #IDLE} minutes is evicted too.
+ *
+ * <p>An evicted client may still be in use, for example by a resource
+ * being written to an HTTP client, that's why it is not shut down right
+ * away. Every client has a counter of its users: the cache itself and
+ * every S3 object opened through {@link #open(AmazonS3, GetObjectRequest)}
+ * and not closed yet. The cache stops being a user {@link #GRACE} seconds
+ * after the eviction (calls which got the client just before it was
+ * evicted finish by then), and the client is shut down, closing its
+ * connections, when it has no users left.
+ *
+ * <p>The class is mutable and thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ * @see DefaultBucket#client()
+ */
+@ToString(of = "clients")
+@EqualsAndHashCode(of = "clients")
+@SuppressWarnings("PMD.DoNotUseThreads")
+@Loggable(Loggable.DEBUG)
+final class Clients {
+
+    /**
+     * Default maximum number of clients.
+     */
+    public static final int MAX = Tv.THOUSAND;
+
+    /**
+     * Minutes a client may stay idle before eviction.
+     */
+    public static final int IDLE = Tv.TEN;
+
+    /**
+     * Seconds an evicted client stays alive, even if it has no objects
+     * open.
+     */
+    public static final int GRACE = Tv.SIXTY;
+
+    /**
+     * Maximum number of HTTP connections of one client.
+     */
+    public static final int CONNECTIONS = Tv.HUNDRED;
+
+    /**
+     * Clients shared by all buckets.
+     */
+    public static final Clients SHARED = new Clients(Clients.MAX);
+
+    /**
+     * Thread releasing evicted clients, shared by all instances.
+     */
+    private static final ScheduledExecutorService RETIRER =
+        Executors.newSingleThreadScheduledExecutor(
+            new VerboseThreads("clients")
+        );
+
+    /**
+     * Clients.
+     */
+    private final transient LoadingCache<Clients.Key, AmazonS3Client> clients;
+
+    /**
+     * Numbers of users of clients, which are not shut down yet.
+     */
+    private final transient ConcurrentMap<AmazonS3, AtomicInteger> users =
+        new ConcurrentHashMap<AmazonS3, AtomicInteger>(0);
+
+    /**
+     * Public ctor.
+     * @param max Maximum number of clients
+     */
+    Clients(final int max) {
+        this(
+            max, TimeUnit.SECONDS.toMillis((long) Clients.GRACE),
+            new CacheLoader<Clients.Key, AmazonS3Client>() {
+                @Override
+                public AmazonS3Client load(final Clients.Key key) {
+                    return key.client();
+                }
+            }
+        );
+    }
+
+    /**
+     * Public ctor.
+     * @param max Maximum number of clients
+     * @param grace Time an evicted client stays alive, in milliseconds
+     * @param loader Loader of new clients
+     */
+    Clients(final int max, final long grace,
+        @NotNull final CacheLoader<Clients.Key, AmazonS3Client> loader) {
+        this.clients = CacheBuilder.newBuilder()
+            .maximumSize(max)
+            .expireAfterAccess(Clients.IDLE, TimeUnit.MINUTES)
+            .removalListener(
+                new RemovalListener<Clients.Key, AmazonS3Client>() {
+                    @Override
+                    public void onRemoval(final RemovalNotification<
+                        Clients.Key, AmazonS3Client> ntf) {
+                        Logger.info(
+                            Clients.class, "#onRemoval(%s): %s",
+                            ntf.getKey(), ntf.getCause()
+                        );
+                        Clients.this.retire(ntf.getValue(), grace);
+                    }
+                }
+            )
+            .build(
+                new CacheLoader<Clients.Key, AmazonS3Client>() {
+                    @Override
+                    public AmazonS3Client load(final Clients.Key key)
+                        throws Exception {
+                        final AmazonS3Client client = loader.load(key);
+                        Clients.this.users.put(client, new AtomicInteger(1));
+                        return client;
+                    }
+                }
+            );
+    }
+
+    /**
+     * Get a client.
+     * @param key AWS key
+     * @param secret AWS secret key
+     * @param region S3 region, like "s3" or "s3-eu-west-1"
+     * @return The client
+     */
+    @NotNull
+    public AmazonS3 get(@NotNull final String key,
+        @NotNull final String secret, @NotNull final String region) {
+        return this.clients.getUnchecked(new Clients.Key(key, secret, region));
+    }
+
+    /**
+     * Get an object, keeping its client alive until the content of the
+     * object is closed or aborted.
+     *
+     * <p>Clients not made by this class are used as they are.
+     *
+     * @param client The client, preferably obtained from this class
+     * @param request The request
+     * @return The object, or NULL if its constraints are not met
+     */
+    public S3Object open(@NotNull final AmazonS3 client,
+        @NotNull final GetObjectRequest request) {
+        final boolean retained = this.retain(client);
+        S3Object obj = null;
+        try {
+            obj = client.getObject(request);
+        } finally {
+            if (retained && obj == null) {
+                this.release(AmazonS3Client.class.cast(client));
+            }
+        }
+        if (retained && obj != null) {
+            final S3ObjectInputStream input = obj.getObjectContent();
+            obj.setObjectContent(
+                new S3ObjectInputStream(
+                    new Clients.Releasing(
+                        this, AmazonS3Client.class.cast(client), input
+                    ),
+                    input.getHttpRequest()
+                )
+            );
+        }
+        return obj;
+    }
+
+    /**
+     * Evict all clients, they are shut down when they have no objects open.
+     */
+    public void clear() {
+        this.clients.invalidateAll();
+        this.clients.cleanUp();
+    }
+
+    /**
+     * Stop counting the cache as a user of an evicted client, after
+     * the grace period.
+     * @param client The client evicted
+     * @param grace Grace period, in milliseconds
+     */
+    private void retire(final AmazonS3Client client, final long grace) {
+        if (grace > 0L) {
+            Clients.RETIRER.schedule(
+                new VerboseRunnable(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            Clients.this.release(client);
+                        }
+                    },
+                    true, false
+                ),
+                grace, TimeUnit.MILLISECONDS
+            );
+        } else {
+            this.release(client);
+        }
+    }
+
+    /**
+     * Count one more user of the client, if it's still alive.
+     * @param client The client
+     * @return TRUE if counted, and {@link #release(AmazonS3Client)} must be
+     *  called later
+     */
+    private boolean retain(final AmazonS3 client) {
+        final AtomicInteger count = this.users.get(client);
+        boolean retained = false;
+        while (count != null) {
+            final int now = count.get();
+            if (now <= 0) {
+                break;
+            }
+            if (count.compareAndSet(now, now + 1)) {
+                retained = true;
+                break;
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Count one user of the client less, and shut it down if nobody
+     * uses it any more.
+     * @param client The client
+     */
+    private void release(final AmazonS3Client client) {
+        final AtomicInteger count = this.users.get(client);
+        if (count != null && count.decrementAndGet() == 0) {
+            this.users.remove(client);
+            Logger.info(this, "#release(): %s shut down", client);
+            client.shutdown();
+        }
+    }
+
+    /**
+     * Credentials and region of a client.
+     */
+    @ToString(of = { "key", "region" })
+    @EqualsAndHashCode(of = { "key", "secret", "region" })
+    static final class Key {
+        /**
+         * AWS key.
+         */
+        private final transient String key;
+        /**
+         * AWS secret key.
+         */
+        private final transient String secret;
+        /**
+         * S3 region.
+         */
+        private final transient String region;
+        /**
+         * Public ctor.
+         * @param akey AWS key
+         * @param scrt AWS secret key
+         * @param rgn S3 region
+         */
+        Key(final String akey, final String scrt, final String rgn) {
+            this.key = akey;
+            this.secret = scrt;
+            this.region = rgn;
+        }
+        /**
+         * Make a new client.
+         * @return The client
+         */
+        public AmazonS3Client client() {
+            final ClientConfiguration config = new ClientConfiguration();
+            config.setSocketTimeout(0);
+            config.setMaxConnections(Clients.CONNECTIONS);
+            final AmazonS3Client client = new AmazonS3Client(
+                new BasicAWSCredentials(this.key, this.secret),
+                config
+            );
+            client.setEndpoint(
+                String.format("%s.amazonaws.com", this.region)
+            );
+            return client;
+        }
+    }
+
+    /**
+     * Content of an object, which releases its client when closed.
+     */
+    private static final class Releasing extends FilterInputStream {
+        /**
+         * Clients.
+         */
+        private final transient Clients clients;
+        /**
+         * The client.
+         */
+        private final transient AmazonS3Client client;
+        /**
+         * Is it released already?
+         */
+        private final transient AtomicBoolean released = new AtomicBoolean();
+        /**
+         * Public ctor.
+         * @param clts Clients
+         * @param clnt The client to release
+         * @param input Content of the object
+         */
+        Releasing(final Clients clts, final AmazonS3Client clnt,
+            final InputStream input) {
+            super(input);
+            this.clients = clts;
+            this.client = clnt;
+        }
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (this.released.compareAndSet(false, true)) {
+                    this.clients.release(this.client);
+                }
+            }
+        }
+    }
+
+}
@@ -29,10 +29,7 @@
  */
 package com.s3auth.hosts;
 
-import com.amazonaws.ClientConfiguration;
-import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
 import com.jcabi.aspects.Immutable;
 import com.jcabi.aspects.Loggable;
 import javax.validation.constraints.NotNull;
@@ -41,6 +38,9 @@ import lombok.EqualsAndHashCode;
 /**
  * Default implementation of {@link Bucket}.
  *
+ * <p>Amazon S3 clients are not created for every bucket, but taken
+ * from {@link Clients#SHARED}.
+ *
  * @author Yegor Bugayenko (yegor@tpc2.com)
  * @version $Id$
  * @since 0.0.1
@@ -66,14 +66,7 @@ final class DefaultBucket implements Bucket {
     @Override
     @NotNull
     public AmazonS3 client() {
-        final ClientConfiguration config = new ClientConfiguration();
-        config.setSocketTimeout(0);
-        final AmazonS3 client = new AmazonS3Client(
-            new BasicAWSCredentials(this.key(), this.secret()),
-            config
-        );
-        client.setEndpoint(String.format("%s.amazonaws.com", this.region()));
-        return client;
+        return Clients.SHARED.get(this.key(), this.secret(), this.region());
     }
 
     @Override
@@ -38,15 +38,23 @@ import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
 import com.amazonaws.services.dynamodbv2.model.ScanRequest;
 import com.amazonaws.services.dynamodbv2.model.ScanResult;
 import com.google.common.collect.ImmutableMap;
-import com.jcabi.aspects.Cacheable;
-import com.jcabi.aspects.Immutable;
 import com.jcabi.aspects.Loggable;
+import com.jcabi.log.Logger;
+import com.jcabi.log.VerboseThreads;
 import com.jcabi.manifests.Manifests;
 import com.jcabi.urn.URN;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.validation.constraints.NotNull;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
@@ -54,6 +62,11 @@ import lombok.ToString;
 /**
  * Abstraction on top of DynamoDB SDK.
  *
+ * <p>The table is loaded by a parallel scan: every segment is scanned
+ * in its own thread of a bounded pool and is paginated until DynamoDB
+ * reports no more items. The pool has a thread per segment, is kept for
+ * the lifetime of the object, and is shut down in {@link #close()}.
+ *
  * <p>The class is mutable and thread-safe.
  *
  * @author Yegor Bugayenko (yegor@tpc2.com)
@@ -62,8 +75,7 @@ import lombok.ToString;
  * @checkstyle ClassDataAbstractionCoupling (500 lines)
  * @todo #1 Would be nice to migrate to jcabi-dynamo
  */
-@Immutable
-@ToString
+@ToString(of = { "client", "table", "segments" })
 @EqualsAndHashCode(of = { "client", "table" })
 @Loggable(Loggable.INFO)
 final class DefaultDynamo implements Dynamo {
@@ -104,9 +116,9 @@ final class DefaultDynamo implements Dynamo {
     public static final String SYSLOG = "domain.syslog";
 
     /**
-     * Lifetime of registry in memory, in minutes.
+     * Default number of segments to scan in parallel.
      */
-    private static final int LIFETIME = 5;
+    private static final int SEGMENTS = 4;
 
     /**
      * Client.
@@ -118,6 +130,16 @@ final class DefaultDynamo implements Dynamo {
      */
     private final transient String table;
 
+    /**
+     * Number of segments to scan in parallel.
+     */
+    private final transient int segments;
+
+    /**
+     * Threads scanning segments.
+     */
+    private final transient ExecutorService pool;
+
     /**
      * Public ctor.
      */
@@ -152,56 +174,83 @@ final class DefaultDynamo implements Dynamo {
      */
     DefaultDynamo(@NotNull final Dynamo.Client clnt,
         @NotNull final String tbl) {
+        this(clnt, tbl, DefaultDynamo.SEGMENTS);
+    }
+
+    /**
+     * Ctor for unit tests.
+     * @param clnt The client to Dynamo DB
+     * @param tbl Table name
+     * @param sgmts Number of segments to scan in parallel
+     */
+    DefaultDynamo(@NotNull final Dynamo.Client clnt,
+        @NotNull final String tbl, final int sgmts) {
         this.client = clnt;
         this.table = tbl;
+        this.segments = sgmts;
+        this.pool = Executors.newFixedThreadPool(
+            sgmts, new VerboseThreads("dynamo-scan")
+        );
     }
 
     @Override
     public void close() {
-        // nothing to do
+        this.pool.shutdownNow();
     }
 
     @Override
     @NotNull
     @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
-    @Cacheable(lifetime = DefaultDynamo.LIFETIME, unit = TimeUnit.MINUTES)
-    public ConcurrentMap<URN, Domains> load() {
+    public ConcurrentMap<URN, Domains> load() throws IOException {
+        final long start = System.currentTimeMillis();
         final ConcurrentMap<URN, Domains> domains =
             new ConcurrentHashMap<URN, Domains>(0);
         final AmazonDynamoDB amazon = this.client.get();
-        final ScanResult result = amazon.scan(new ScanRequest(this.table));
-        for (final Map<String, AttributeValue> item : result.getItems()) {
-            final String syslog;
-            if (item.containsKey(DefaultDynamo.SYSLOG)) {
-                syslog = item.get(DefaultDynamo.SYSLOG).getS();
-            } else {
-                syslog = "syslog.s3auth.com:514";
-            }
-            final String bucket;
-            if (item.containsKey(DefaultDynamo.BUCKET)) {
-                bucket = item.get(DefaultDynamo.BUCKET).getS();
-            } else {
-                bucket = item.get(DefaultDynamo.NAME).getS();
+        int total = 0;
+        try {
+            for (final Map<String, AttributeValue> item : this.scan(amazon)) {
+                final String syslog;
+                if (item.containsKey(DefaultDynamo.SYSLOG)) {
+                    syslog = item.get(DefaultDynamo.SYSLOG).getS();
+                } else {
+                    syslog = "syslog.s3auth.com:514";
+                }
+                final String bucket;
+                if (item.containsKey(DefaultDynamo.BUCKET)) {
+                    bucket = item.get(DefaultDynamo.BUCKET).getS();
+                } else {
+                    bucket = item.get(DefaultDynamo.NAME).getS();
+                }
+                final URN user = URN.create(
+                    item.get(DefaultDynamo.USER).getS()
+                );
+                domains.putIfAbsent(user, new Domains());
+                domains.get(user).add(
+                    new DefaultDomain(
+                        item.get(DefaultDynamo.NAME).getS(),
+                        item.get(DefaultDynamo.KEY).getS(),
+                        item.get(DefaultDynamo.SECRET).getS(),
+                        bucket,
+                        item.get(DefaultDynamo.REGION).getS(),
+                        syslog
+                    )
+                );
+                ++total;
             }
-            final URN user = URN.create(item.get(DefaultDynamo.USER).getS());
-            domains.putIfAbsent(user, new Domains());
-            domains.get(user).add(
-                new DefaultDomain(
-                    item.get(DefaultDynamo.NAME).getS(),
-                    item.get(DefaultDynamo.KEY).getS(),
-                    item.get(DefaultDynamo.SECRET).getS(),
-                    bucket,
-                    item.get(DefaultDynamo.REGION).getS(),
-                    syslog
-                )
-            );
+        } finally {
+            amazon.shutdown();
         }
-        amazon.shutdown();
+        Logger.info(
+            this,
+            // @checkstyle LineLength (1 line)
+            "#load(): %d item(s) of %d user(s) loaded from %s in %d segment(s), %[ms]s",
+            total, domains.size(), this.table, this.segments,
+            System.currentTimeMillis() - start
+        );
         return domains;
     }
 
     @Override
-    @Cacheable.FlushBefore
     public boolean add(@NotNull final URN user,
         @NotNull final Domain domain) {
         final ConcurrentMap<String, AttributeValue> attrs =
@@ -219,7 +268,6 @@ final class DefaultDynamo implements Dynamo {
     }
 
     @Override
-    @Cacheable.FlushBefore
     public boolean remove(@NotNull final Domain domain) {
         final AmazonDynamoDB amazon = this.client.get();
         amazon.deleteItem(
@@ -234,4 +282,81 @@ final class DefaultDynamo implements Dynamo {
         return true;
     }
 
+    /**
+     * Scan the entire table, segment by segment in parallel.
+     * @param amazon The client to use
+     * @return All items found
+     * @throws IOException If fails
+     */
+    private Collection<Map<String, AttributeValue>> scan(
+        final AmazonDynamoDB amazon) throws IOException {
+        final Collection<Future<Collection<Map<String, AttributeValue>>>>
+            futures = new ArrayList<Future<
+                Collection<Map<String, AttributeValue>>>>(this.segments);
+        for (int segment = 0; segment < this.segments; ++segment) {
+            futures.add(
+                this.pool.submit(new DefaultDynamo.Segment(amazon, segment))
+            );
+        }
+        final Collection<Map<String, AttributeValue>> items =
+            new LinkedList<Map<String, AttributeValue>>();
+        try {
+            for (final Future<Collection<Map<String, AttributeValue>>> future
+                : futures) {
+                items.addAll(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            for (final Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * One segment of a parallel scan, fully paginated.
+     */
+    private final class Segment
+        implements Callable<Collection<Map<String, AttributeValue>>> {
+        /**
+         * The client to use.
+         */
+        private final transient AmazonDynamoDB amazon;
+        /**
+         * Number of the segment.
+         */
+        private final transient int number;
+        /**
+         * Public ctor.
+         * @param aws The client
+         * @param num Number of the segment
+         */
+        Segment(final AmazonDynamoDB aws, final int num) {
+            this.amazon = aws;
+            this.number = num;
+        }
+        @Override
+        public Collection<Map<String, AttributeValue>> call() {
+            final Collection<Map<String, AttributeValue>> items =
+                new LinkedList<Map<String, AttributeValue>>();
+            Map<String, AttributeValue> last = null;
+            do {
+                final ScanResult result = this.amazon.scan(
+                    new ScanRequest(DefaultDynamo.this.table)
+                        .withSegment(this.number)
+                        .withTotalSegments(DefaultDynamo.this.segments)
+                        .withExclusiveStartKey(last)
+                );
+                items.addAll(result.getItems());
+                last = result.getLastEvaluatedKey();
+            } while (last != null && !last.isEmpty());
+            return items;
+        }
+    }
+
 }
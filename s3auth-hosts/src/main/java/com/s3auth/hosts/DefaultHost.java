@@ -31,14 +31,27 @@ package com.s3auth.hosts;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.services.s3.model.BucketWebsiteConfiguration;
-import com.jcabi.aspects.Immutable;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
 import com.jcabi.log.Logger;
+import com.jcabi.log.VerboseThreads;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.validation.constraints.NotNull;
 import lombok.EqualsAndHashCode;
 import org.apache.commons.lang3.StringUtils;
@@ -46,15 +59,60 @@ import org.apache.commons.lang3.StringUtils;
 /**
  * Default implementation of {@link Host}.
  *
+ * <p>The host remembers which S3 object every path was found in (for
+ * example, {@code docs/index.html} for {@code /docs/}), so that next
+ * requests for the path go straight to that object. Paths not found in
+ * any object are remembered too, for a few seconds. When a path that
+ * looks like a directory (it ends with a slash or its last segment has
+ * no extension) is requested for the first time, all objects it may be
+ * in are probed in parallel, instead of one by one. Other paths are
+ * almost always found in the object of the same name, so they are not
+ * worth extra S3 requests. Probes are made by at most {@link #PROBERS}
+ * threads, shared by all hosts; when all of them are busy, objects are
+ * tried one by one. Content of small popular objects is kept in memory,
+ * shared by all hosts (see {@link HotObjects}).
+ *
+ * <p>The class is mutable and thread-safe.
+ *
  * @author Yegor Bugayenko (yegor@tpc2.com)
  * @version $Id$
  * @since 0.0.1
  */
-@Immutable
 @EqualsAndHashCode(of = "bucket")
 @Loggable(Loggable.DEBUG)
 final class DefaultHost implements Host {
 
+    /**
+     * Maximum number of paths to remember, found and not found.
+     */
+    private static final int PATHS = Tv.TEN * Tv.THOUSAND;
+
+    /**
+     * Minutes to remember the object a path was found in.
+     */
+    private static final int FOUND = Tv.TEN;
+
+    /**
+     * Seconds to remember a path not found.
+     */
+    private static final int MISSING = Tv.TEN;
+
+    /**
+     * Maximum number of threads probing S3 objects.
+     */
+    private static final int PROBERS =
+        Runtime.getRuntime().availableProcessors() * Tv.TEN;
+
+    /**
+     * Threads probing S3 objects, shared by all hosts.
+     */
+    private static final ExecutorService PROBES = DefaultHost.prober();
+
+    /**
+     * Hot objects, shared by all hosts.
+     */
+    private static final HotObjects HOT = new HotObjects();
+
     /**
      * The S3 bucket.
      */
@@ -65,6 +123,34 @@ final class DefaultHost implements Host {
      */
     private final transient Htpasswd htpasswd;
 
+    /**
+     * Website configuration of the bucket.
+     */
+    private final transient Website website;
+
+    /**
+     * Metadata of S3 objects of the bucket.
+     */
+    private final transient Metadata metadata = new Metadata();
+
+    /**
+     * Names of S3 objects, by paths of URIs found in them.
+     */
+    private final transient Cache<String, String> resolved =
+        CacheBuilder.newBuilder()
+            .maximumSize(DefaultHost.PATHS)
+            .expireAfterWrite(DefaultHost.FOUND, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Error messages, by paths of URIs not found in any S3 objects.
+     */
+    private final transient Cache<String, String> misses =
+        CacheBuilder.newBuilder()
+            .maximumSize(DefaultHost.PATHS)
+            .expireAfterWrite(DefaultHost.MISSING, TimeUnit.SECONDS)
+            .build();
+
     /**
      * Public ctor.
      * @param bckt The S3 bucket to use
@@ -72,6 +158,7 @@ final class DefaultHost implements Host {
     DefaultHost(@NotNull final Bucket bckt) {
         this.bucket = bckt;
         this.htpasswd = new Htpasswd(this);
+        this.website = new Website(bckt);
     }
 
     @Override
@@ -86,18 +173,147 @@ final class DefaultHost implements Host {
 
     @Override
     @NotNull
-    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
     @Loggable(value = Loggable.DEBUG, ignore = IOException.class)
     public Resource fetch(@NotNull final URI uri, @NotNull final Range range)
         throws IOException {
+        final String path = StringUtils.strip(uri.getPath(), "/");
+        final String missing = this.misses.getIfPresent(path);
+        if (missing != null) {
+            throw new IOException(missing);
+        }
+        Resource resource = null;
+        final String known = this.resolved.getIfPresent(path);
+        if (known != null) {
+            try {
+                resource = this.resource(known, range);
+            } catch (final AmazonClientException ex) {
+                this.resolved.invalidate(path);
+            }
+        }
+        if (resource == null && DefaultHost.directory(uri.getPath())) {
+            resource = this.hedge(path, range);
+        }
+        if (resource == null) {
+            resource = this.resolve(uri, path, range);
+        }
+        return resource;
+    }
+
+    @Override
+    public boolean isHidden(@NotNull final URI uri) {
+        return true;
+    }
+
+    @Override
+    public boolean authorized(@NotNull final String user,
+        @NotNull final String password) throws IOException {
+        final boolean auth;
+        if (user.equals(this.bucket.key())
+            && password.equals(this.bucket.secret())) {
+            auth = true;
+        } else {
+            auth = this.htpasswd.authorized(user, password);
+        }
+        return auth;
+    }
+
+    /**
+     * Make a resource of an S3 object, served from memory if it's there.
+     * @param key Key of the object
+     * @param range The range
+     * @return The resource
+     */
+    private Resource resource(final String key, final Range range) {
+        return DefaultHost.HOT.resource(
+            this.bucket.bucket(), key, range,
+            new DefaultResource(
+                this.bucket.client(), this.bucket.bucket(), key, range,
+                this.metadata
+            )
+        );
+    }
+
+    /**
+     * Probe all possible S3 objects in parallel and fetch the resource
+     * from the most important one that exists.
+     *
+     * <p>Metadata of all objects are requested at the same time. As soon
+     * as the most important object is known to exist, other requests are
+     * cancelled. If there is only one possible object, or none of them
+     * exists, or the object can't be fetched, or there are no free
+     * threads to probe them, NULL is returned, and the caller should try
+     * them one by one.
+     *
+     * @param path Path of the URI, without leading and trailing slashes
+     * @param range The range
+     * @return The resource or NULL
+     * @throws IOException If interrupted
+     */
+    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+    private Resource hedge(final String path, final Range range)
+        throws IOException {
+        final Collection<DefaultHost.ObjectName> names = this.names(path);
+        Resource resource = null;
+        if (names.size() > 1) {
+            final Collection<Future<String>> probes =
+                new ArrayList<Future<String>>(names.size());
+            String found = null;
+            try {
+                for (final DefaultHost.ObjectName name : names) {
+                    probes.add(
+                        DefaultHost.PROBES.submit(new DefaultHost.Probe(name))
+                    );
+                }
+                for (final Future<String> probe : probes) {
+                    try {
+                        found = probe.get();
+                        break;
+                    } catch (final ExecutionException ex) {
+                        continue;
+                    }
+                }
+            } catch (final RejectedExecutionException ex) {
+                Logger.debug(this, "#hedge(): no free threads, %s", ex);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } finally {
+                for (final Future<String> probe : probes) {
+                    probe.cancel(true);
+                }
+            }
+            if (found != null) {
+                try {
+                    resource = this.resource(found, range);
+                    this.resolved.put(path, found);
+                } catch (final AmazonClientException ex) {
+                    resource = null;
+                }
+            }
+        }
+        return resource;
+    }
+
+    /**
+     * Find the resource among all possible S3 objects, and remember
+     * which object it was found in (or that it was not found).
+     * @param uri The URI
+     * @param path Path of the URI, without leading and trailing slashes
+     * @param range The range
+     * @return The resource
+     * @throws IOException If not found
+     */
+    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+    private Resource resolve(final URI uri, final String path,
+        final Range range) throws IOException {
         Resource resource = null;
         final Collection<String> errors = new LinkedList<String>();
-        for (final DefaultHost.ObjectName name : this.names(uri)) {
+        boolean absent = true;
+        for (final DefaultHost.ObjectName name : this.names(path)) {
             try {
-                resource = new DefaultResource(
-                    this.bucket.client(), this.bucket.bucket(),
-                    name.get(), range
-                );
+                final String key = name.get();
+                resource = this.resource(key, range);
+                this.resolved.put(path, key);
                 break;
             } catch (final AmazonServiceException ex) {
                 if ("NoSuchBucket".equals(ex.getErrorCode())) {
@@ -109,48 +325,60 @@ final class DefaultHost implements Host {
                         ex
                     );
                 }
+                if (ex.getStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                    absent = false;
+                }
                 // @checkstyle MultipleStringLiterals (1 line)
                 errors.add(String.format("'%s': %s", name, ex.getMessage()));
             } catch (final AmazonClientException ex) {
+                absent = false;
                 errors.add(String.format("'%s': %s", name, ex.getMessage()));
             }
         }
         if (resource == null) {
-            throw new IOException(
-                Logger.format(
-                    "failed to fetch %s from '%s' (key=%s): %[list]s",
-                    uri, this.bucket.name(), this.bucket.key(), errors
-                )
+            final String message = Logger.format(
+                "failed to fetch %s from '%s' (key=%s): %[list]s",
+                uri, this.bucket.name(), this.bucket.key(), errors
             );
+            if (absent) {
+                this.misses.put(path, message);
+            }
+            throw new IOException(message);
         }
         return resource;
     }
 
-    @Override
-    public boolean isHidden(@NotNull final URI uri) {
-        return true;
+    /**
+     * Does this path look like a directory?
+     * @param path Path of the URI
+     * @return TRUE if it ends with a slash or its last segment has no
+     *  extension
+     */
+    private static boolean directory(final String path) {
+        return path.indexOf('.', path.lastIndexOf('/') + 1) < 0;
     }
 
-    @Override
-    public boolean authorized(@NotNull final String user,
-        @NotNull final String password) throws IOException {
-        final boolean auth;
-        if (user.equals(this.bucket.key())
-            && password.equals(this.bucket.secret())) {
-            auth = true;
-        } else {
-            auth = this.htpasswd.authorized(user, password);
-        }
-        return auth;
+    /**
+     * Make an executor of probing threads.
+     * @return Executor, which rejects tasks when all threads are busy
+     */
+    private static ExecutorService prober() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            DefaultHost.PROBERS, DefaultHost.PROBERS,
+            1L, TimeUnit.MINUTES,
+            new SynchronousQueue<Runnable>(),
+            new VerboseThreads("probe")
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
-     * Convert URI to all possible S3 object names (in order of importance).
-     * @param uri The URI
+     * Convert path to all possible S3 object names (in order of importance).
+     * @param name Path of URI, without leading and trailing slashes
      * @return Object names
      */
-    private Iterable<DefaultHost.ObjectName> names(final URI uri) {
-        final String name = StringUtils.strip(uri.getPath(), "/");
+    private Collection<DefaultHost.ObjectName> names(final String name) {
         final Collection<DefaultHost.ObjectName> names =
             new LinkedList<DefaultHost.ObjectName>();
         if (!name.isEmpty()) {
@@ -189,20 +417,8 @@ final class DefaultHost implements Host {
         }
         @Override
         public String get() {
-            String suffix = null;
-            try {
-                final BucketWebsiteConfiguration conf =
-                    DefaultHost.this.bucket.client()
-                        .getBucketWebsiteConfiguration(
-                            DefaultHost.this.bucket.name()
-                        );
-                if (conf != null) {
-                    suffix = conf.getIndexDocumentSuffix();
-                }
-            } catch (final AmazonClientException ex) {
-                suffix = "";
-            }
-            if (suffix == null || suffix.isEmpty()) {
+            String suffix = DefaultHost.this.website.suffix();
+            if (suffix.isEmpty()) {
                 suffix = "index.html";
             }
             final StringBuilder text = new StringBuilder(this.origin);
@@ -218,6 +434,33 @@ final class DefaultHost implements Host {
         }
     }
 
+    /**
+     * Probe of an S3 object, returning its name if it exists.
+     */
+    private final class Probe implements Callable<String> {
+        /**
+         * Name of the object.
+         */
+        private final transient DefaultHost.ObjectName name;
+        /**
+         * Public ctor.
+         * @param obj Name of the object
+         */
+        Probe(final DefaultHost.ObjectName obj) {
+            this.name = obj;
+        }
+        @Override
+        public String call() {
+            final String key = this.name.get();
+            final ObjectMetadata meta = DefaultHost.this.bucket.client()
+                .getObjectMetadata(DefaultHost.this.bucket.bucket(), key);
+            if (meta != null) {
+                DefaultHost.this.metadata.put(key, meta);
+            }
+            return key;
+        }
+    }
+
     /**
      * Name of an S3 Object, context dependent.
      */
@@ -29,11 +29,15 @@
  */
 package com.s3auth.hosts;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.jcabi.aspects.Loggable;
+import com.jcabi.log.Logger;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -41,15 +45,50 @@ import java.net.HttpURLConnection;
 import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.core.HttpHeaders;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
+import org.apache.commons.io.input.ProxyInputStream;
 import org.apache.commons.lang3.StringUtils;
 
 /**
  * Default implementation of {@link Resource}.
  *
+ * <p>The resource is made in two phases. On construction metadata of
+ * the object are obtained from memory (see {@link Metadata}), if they
+ * are known there. The content is then retrieved from S3 only when it
+ * is written, in {@link #writeTo(OutputStream)}. Thus, a response without
+ * a body (a failed precondition, a HEAD request, a client gone away)
+ * holds no S3 connection. If metadata are not known, the object is
+ * retrieved on construction, and its metadata are taken from the
+ * response, so that a cold object costs one request to S3, not two, and
+ * errors of S3 (like {@code NoSuchBucket}) are reported with their codes.
+ * The object retrieved is aborted, if the resource is closed without
+ * being written. The content is retrieved through
+ * {@link Clients#open(AmazonS3, GetObjectRequest)}, so that the S3 client
+ * is not shut down while the content is being written, even if it is
+ * evicted from {@link Clients} meanwhile.
+ *
+ * <p>Metadata seen recently, but not trusted anymore, are revalidated with
+ * a conditional {@code GET} to S3. If the object is not modified, S3
+ * responds with 304 and no content, and the metadata are trusted again.
+ * Thus the relay answers a browser revalidating the object with its own
+ * 304, comparing the ETag of the browser with the ETag confirmed by S3,
+ * and no content is transferred from S3 at all. If it is modified, the
+ * object is retrieved right away, since the browser needs the new
+ * content anyway, and written later (or aborted on close).
+ *
+ * <p>When writing of the content is not completed (for example, the
+ * client went away in the middle of a download), the S3 stream is
+ * aborted instead of being closed, because closing drains the rest of
+ * the object in order to reuse the connection. Bytes aborted are counted
+ * and logged (see {@link #aborted()}). The stream is aborted as well,
+ * when the resource is closed without being written, or when the stream
+ * of {@link #content()} is closed before its end.
+ *
  * <p>The class is mutable and thread-safe.
  *
  * @author Yegor Bugayenko (yegor@tpc2.com)
@@ -59,7 +98,22 @@ import org.apache.commons.lang3.StringUtils;
 @ToString
 @EqualsAndHashCode(of = { "bucket", "key", "range" })
 @Loggable(Loggable.DEBUG)
-final class DefaultResource implements Resource {
+final class DefaultResource implements Resource, Closeable {
+
+    /**
+     * Name of HTTP header with the range of a partial response.
+     */
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    /**
+     * HTTP header line of accepted ranges, one instance for all resources.
+     */
+    private static final String ACCEPT_RANGES = "Accept-Ranges: bytes";
+
+    /**
+     * Total number of bytes of S3 streams aborted, in all resources.
+     */
+    private static final AtomicLong ABORTED = new AtomicLong();
 
     /**
      * Amazon S3 client.
@@ -82,9 +136,20 @@ final class DefaultResource implements Resource {
     private final transient Range range;
 
     /**
-     * The object retrieved on construction.
+     * Metadata of objects of the bucket.
      */
-    private final transient S3Object object;
+    private final transient Metadata metadata;
+
+    /**
+     * Metadata of the object.
+     */
+    private final transient ObjectMetadata meta;
+
+    /**
+     * The object, retrieved when its content is needed first.
+     */
+    private final transient AtomicReference<S3Object> object =
+        new AtomicReference<S3Object>();
 
     /**
      * Public ctor.
@@ -97,11 +162,48 @@ final class DefaultResource implements Resource {
     DefaultResource(@NotNull final AmazonS3 clnt,
         @NotNull final String bckt, @NotNull final String name,
         @NotNull final Range rng) {
+        this(clnt, bckt, name, rng, new Metadata(0));
+    }
+
+    /**
+     * Public ctor.
+     *
+     * <p>If metadata of the object are not known yet, they are revalidated
+     * with S3 (if seen recently) or taken from the object retrieved from
+     * S3, and remembered, if they have an ETag and describe the entire
+     * object. Otherwise, the object itself is not retrieved until its
+     * content is needed.
+     *
+     * @param clnt Amazon S3 client
+     * @param bckt Bucket name
+     * @param name Key name
+     * @param rng Range to deliver
+     * @param mtdt Metadata of objects of the bucket
+     * @checkstyle ParameterNumber (5 lines)
+     */
+    DefaultResource(@NotNull final AmazonS3 clnt,
+        @NotNull final String bckt, @NotNull final String name,
+        @NotNull final Range rng, @NotNull final Metadata mtdt) {
         this.client = clnt;
         this.bucket = bckt;
         this.key = name;
         this.range = rng;
-        this.object = this.client.getObject(this.request(this.range));
+        this.metadata = mtdt;
+        ObjectMetadata known = this.metadata.get(this.key);
+        if (known == null) {
+            known = this.revalidate();
+        }
+        if (known == null) {
+            final S3Object obj = Clients.SHARED.open(
+                this.client, this.request(this.range)
+            );
+            this.object.set(obj);
+            known = obj.getObjectMetadata();
+            if (known.getETag() != null && this.range.equals(Range.ENTIRE)) {
+                this.metadata.put(this.key, known);
+            }
+        }
+        this.meta = known;
     }
 
     @Override
@@ -118,9 +220,12 @@ final class DefaultResource implements Resource {
     @Override
     @Loggable(value = Loggable.DEBUG, limit = Integer.MAX_VALUE)
     public long writeTo(@NotNull final OutputStream output) throws IOException {
-        final InputStream input = this.object.getObjectContent();
+        final S3Object obj = this.open();
+        this.object.compareAndSet(obj, null);
+        final S3ObjectInputStream input = obj.getObjectContent();
         assert input != null;
-        int total = 0;
+        long total = 0L;
+        boolean done = false;
         // @checkstyle MagicNumber (1 line)
         final byte[] buffer = new byte[16 * 1024];
         try {
@@ -141,6 +246,7 @@ final class DefaultResource implements Resource {
                     );
                 }
                 if (count == -1) {
+                    done = true;
                     break;
                 }
                 try {
@@ -162,20 +268,49 @@ final class DefaultResource implements Resource {
                 total += count;
             }
         } finally {
-            input.close();
+            if (done) {
+                input.close();
+            } else {
+                this.abort(input, total);
+            }
         }
         return total;
     }
 
+    @Override
+    public InputStream content() throws IOException {
+        final S3Object obj = this.open();
+        this.object.compareAndSet(obj, null);
+        final S3ObjectInputStream input = obj.getObjectContent();
+        assert input != null;
+        return new DefaultResource.Content(input);
+    }
+
+    @Override
+    public void close() throws IOException {
+        final S3Object obj = this.object.getAndSet(null);
+        if (obj != null) {
+            this.abort(obj.getObjectContent(), 0L);
+        }
+    }
+
+    /**
+     * Total number of bytes of S3 streams aborted so far, in all resources.
+     * @return Number of bytes
+     */
+    public static long aborted() {
+        return DefaultResource.ABORTED.get();
+    }
+
     @Override
     @NotNull
     public Collection<String> headers() {
-        final ObjectMetadata meta = this.object.getObjectMetadata();
+        final ObjectMetadata meta = this.meta;
         final Collection<String> headers = new LinkedList<String>();
         headers.add(
             DefaultResource.header(
                 HttpHeaders.CONTENT_LENGTH,
-                Long.toString(meta.getContentLength())
+                Long.toString(this.length())
             )
         );
         if (meta.getContentType() != null) {
@@ -203,11 +338,11 @@ final class DefaultResource implements Resource {
                 )
             )
         );
-        headers.add(DefaultResource.header("Accept-Ranges", "bytes"));
+        headers.add(DefaultResource.ACCEPT_RANGES);
         if (!this.range.equals(Range.ENTIRE)) {
             headers.add(
                 DefaultResource.header(
-                    "Content-Range",
+                    DefaultResource.CONTENT_RANGE,
                     String.format(
                         "bytes %d-%d/%d",
                         this.range.first(),
@@ -221,16 +356,13 @@ final class DefaultResource implements Resource {
     }
 
     @Override
-    @NotNull
     public String etag() {
-        return this.object.getObjectMetadata().getETag();
+        return this.meta.getETag();
     }
 
     @Override
     public Date lastModified() {
-        return new Date(
-            this.object.getObjectMetadata().getLastModified().getTime()
-        );
+        return new Date(this.meta.getLastModified().getTime());
     }
 
     /**
@@ -259,19 +391,204 @@ final class DefaultResource implements Resource {
         return request;
     }
 
+    /**
+     * Abort the S3 stream, which is not read till its end.
+     * @param input The stream
+     * @param total Bytes read from it so far
+     * @throws IOException If fails to abort
+     */
+    private void abort(final S3ObjectInputStream input, final long total)
+        throws IOException {
+        final long left = Math.max(this.length() - total, 0L);
+        input.abort();
+        Logger.info(
+            this,
+            "%s/%s aborted after %d bytes, %d bytes not read, %d in total",
+            this.bucket, this.key, total, left,
+            DefaultResource.ABORTED.addAndGet(left)
+        );
+    }
+
+    /**
+     * Revalidate metadata of the object seen recently.
+     *
+     * <p>The object is requested with its ETag as a
+     * {@code If-None-Match} constraint. If S3 says that it is not modified
+     * (the SDK returns NULL instead of the object), we use the metadata
+     * we've seen. Otherwise we keep the object retrieved, together with its
+     * new metadata. Ranges are not revalidated, since a partial object
+     * doesn't tell its total size.
+     *
+     * @return Metadata or NULL if not seen recently
+     */
+    private ObjectMetadata revalidate() {
+        final ObjectMetadata seen = this.metadata.recent(this.key);
+        ObjectMetadata meta = null;
+        if (seen != null && seen.getETag() != null
+            && this.range.equals(Range.ENTIRE)) {
+            final S3Object obj = Clients.SHARED.open(
+                this.client,
+                this.request(this.range)
+                    .withNonmatchingETagConstraint(seen.getETag())
+            );
+            if (obj == null) {
+                meta = seen;
+            } else {
+                this.object.set(obj);
+                meta = obj.getObjectMetadata();
+            }
+            if (meta.getETag() != null) {
+                this.metadata.put(this.key, meta);
+            }
+        }
+        return meta;
+    }
+
     /**
      * Get total size of an S3 object.
+     *
+     * <p>If metadata are taken from a partial response of S3, the size is
+     * taken from its {@code Content-Range} header, like
+     * {@code bytes 0-99/1234}.
+     *
      * @return Size of it in bytes
      */
     private long size() {
-        final long size;
+        long size = this.meta.getContentLength();
+        Object header = null;
+        if (!this.range.equals(Range.ENTIRE)) {
+            header = this.meta.getRawMetadata()
+                .get(DefaultResource.CONTENT_RANGE);
+        }
+        if (header != null) {
+            final String total = StringUtils.substringAfterLast(
+                header.toString(), "/"
+            );
+            if (StringUtils.isNumeric(total) && !total.isEmpty()) {
+                size = Long.parseLong(total);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get number of bytes to deliver.
+     * @return Size of the range in bytes
+     */
+    private long length() {
+        final long length;
         if (this.range.equals(Range.ENTIRE)) {
-            size = this.object.getObjectMetadata().getContentLength();
+            length = this.size();
         } else {
-            size = this.client.getObject(this.request(Range.ENTIRE))
-                .getObjectMetadata().getContentLength();
+            length = Math.max(
+                Math.min(this.range.last(), this.size() - 1)
+                    - this.range.first() + 1,
+                0L
+            );
+        }
+        return length;
+    }
+
+    /**
+     * Get the object, retrieving it if not yet.
+     *
+     * <p>The object retrieved must have the same ETag as its metadata
+     * obtained before, otherwise the headers we report would not match
+     * the content.
+     *
+     * @return The object
+     * @throws IOException If it can't be retrieved or changed since its
+     *  metadata were obtained
+     */
+    private S3Object open() throws IOException {
+        S3Object obj = this.object.get();
+        if (obj == null) {
+            try {
+                obj = Clients.SHARED.open(
+                    this.client, this.request(this.range)
+                );
+            } catch (final AmazonClientException ex) {
+                throw new IOException(
+                    String.format(
+                        "failed to retrieve %s/%s, range=%s",
+                        this.bucket, this.key, this.range
+                    ),
+                    ex
+                );
+            }
+            final String etag = obj.getObjectMetadata().getETag();
+            if (etag != null && !etag.equals(this.meta.getETag())) {
+                obj.getObjectContent().abort();
+                this.metadata.invalidate(this.key);
+                throw new IOException(
+                    String.format(
+                        "%s/%s changed, its ETag is %s instead of %s",
+                        this.bucket, this.key, etag, this.meta.getETag()
+                    )
+                );
+            }
+            if (!this.object.compareAndSet(null, obj)) {
+                obj.getObjectContent().abort();
+                obj = this.object.get();
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * Content of the object being read, aborted when closed before its end.
+     */
+    private final class Content extends ProxyInputStream {
+        /**
+         * The S3 stream.
+         */
+        private final transient S3ObjectInputStream input;
+        /**
+         * Bytes read so far.
+         */
+        private transient long total;
+        /**
+         * Is the end of the stream reached?
+         */
+        private transient boolean done;
+        /**
+         * Public ctor.
+         * @param stream The S3 stream
+         */
+        Content(final S3ObjectInputStream stream) {
+            super(stream);
+            this.input = stream;
+        }
+        @Override
+        public void close() throws IOException {
+            if (this.done) {
+                this.input.close();
+            } else {
+                DefaultResource.this.abort(this.input, this.total);
+            }
+        }
+        @Override
+        protected void afterRead(final int count) {
+            if (count < 0) {
+                this.done = true;
+            } else {
+                this.total += count;
+            }
+        }
+        @Override
+        protected void handleIOException(final IOException ex)
+            throws IOException {
+            throw new DefaultResource.StreamingException(
+                String.format(
+                    "failed to read %s/%s, range=%s, total=%d",
+                    DefaultResource.this.bucket,
+                    DefaultResource.this.key,
+                    DefaultResource.this.range,
+                    this.total
+                ),
+                ex
+            );
         }
-        return size;
     }
 
     /**
@@ -31,9 +31,10 @@ package com.s3auth.hosts;
 
 import com.jcabi.aspects.Loggable;
 import java.util.AbstractSet;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.validation.constraints.NotNull;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
@@ -41,6 +42,9 @@ import lombok.ToString;
 /**
  * Bag of domains.
  *
+ * <p>Domains are indexed by their names, in lower case, since DNS
+ * names are case-insensitive. Lookups by name are single hash probes.
+ *
  * @author Yegor Bugayenko (yegor@tpc2.com)
  * @version $Id$
  * @since 0.0.1
@@ -51,9 +55,19 @@ import lombok.ToString;
 final class Domains extends AbstractSet<Domain> {
 
     /**
-     * List of domains.
+     * Domains by their normalized names.
+     */
+    private final transient ConcurrentMap<String, Domain> all =
+        new ConcurrentHashMap<String, Domain>(0);
+
+    /**
+     * Normalize domain name, to be used as a key in indexes.
+     * @param name The name of domain
+     * @return Normalized name
      */
-    private final transient Set<Domain> all = new HashSet<Domain>();
+    public static String normalize(@NotNull final String name) {
+        return name.trim().toLowerCase(Locale.ENGLISH);
+    }
 
     /**
      * Has this domain inside?
@@ -61,14 +75,7 @@ final class Domains extends AbstractSet<Domain> {
      * @return TRUE if it is inside already
      */
     public boolean has(@NotNull final String name) {
-        boolean has = false;
-        for (Domain domain : this.all) {
-            if (domain.name().equals(name)) {
-                has = true;
-                break;
-            }
-        }
-        return has;
+        return this.all.containsKey(Domains.normalize(name));
     }
 
     /**
@@ -77,13 +84,7 @@ final class Domains extends AbstractSet<Domain> {
      * @return Found domain
      */
     public Domain get(@NotNull final String name) {
-        Domain found = null;
-        for (Domain domain : this.all) {
-            if (domain.name().equals(name)) {
-                found = domain;
-                break;
-            }
-        }
+        final Domain found = this.all.get(Domains.normalize(name));
         if (found == null) {
             throw new IllegalArgumentException(
                 String.format("domain %s not found", name)
@@ -94,12 +95,8 @@ final class Domains extends AbstractSet<Domain> {
 
     @Override
     public boolean add(final Domain domain) {
-        boolean added = false;
-        if (!this.has(domain.name())) {
-            this.all.add(domain);
-            added = true;
-        }
-        return added;
+        return this.all.putIfAbsent(Domains.normalize(domain.name()), domain)
+            == null;
     }
 
     @Override
@@ -109,7 +106,7 @@ final class Domains extends AbstractSet<Domain> {
 
     @Override
     public Iterator<Domain> iterator() {
-        return this.all.iterator();
+        return this.all.values().iterator();
     }
 
     @Override
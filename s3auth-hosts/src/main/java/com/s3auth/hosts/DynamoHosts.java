@@ -29,14 +29,23 @@
  */
 package com.s3auth.hosts;
 
-import com.jcabi.aspects.Immutable;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
 import com.jcabi.urn.URN;
 import java.io.IOException;
 import java.util.AbstractSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
@@ -46,6 +55,24 @@ import lombok.ToString;
 /**
  * Collection of hosts, persisted in Amazon DynamoDB.
  *
+ * <p>Every time {@link Dynamo#load()} returns a new snapshot the class
+ * builds an immutable index of domains by their names (in lower case)
+ * and by their owners, and swaps it atomically. Host resolution is
+ * a single hash probe, no matter how many domains are registered.
+ *
+ * <p>Names which are not registered are usually rejected by a Bloom
+ * filter of the index, without touching the map. Names registered are
+ * always looked up in the index first, so they never pay for anything
+ * else. Names not found are remembered for a minute (or until the next
+ * snapshot), together with the message of the exception thrown for them,
+ * so that a stream of requests to an unknown host doesn't render it for
+ * every request. The exception itself is new every time, since it's
+ * mutable and may be thrown in many threads at once.
+ *
+ * <p>Hosts found are kept in a {@link Registry}, one per domain, and
+ * are replaced or closed when their domains change or disappear from
+ * a snapshot.
+ *
  * <p>The class is mutable and thread-safe.
  *
  * @author Yegor Bugayenko (yegor@tpc2.com)
@@ -54,22 +81,59 @@ import lombok.ToString;
  * @checkstyle ClassDataAbstractionCoupling (500 lines)
  */
 @SuppressWarnings({ "PMD.TooManyMethods", "PMD.UseConcurrentHashMap" })
-@Immutable
-@ToString
+@ToString(of = "dynamo")
 @EqualsAndHashCode(of = "dynamo")
 @Loggable(Loggable.DEBUG)
 public final class DynamoHosts implements Hosts {
 
+    /**
+     * How long an unknown name is remembered, in seconds.
+     */
+    private static final long FORGET = TimeUnit.MINUTES.toSeconds(1L);
+
+    /**
+     * Maximum number of unknown names to remember.
+     */
+    private static final int UNKNOWN = 10000;
+
+    /**
+     * Expected probability of false positives in the Bloom filter.
+     */
+    private static final double FALSE_POSITIVES = 0.01;
+
     /**
      * Dynamo DB.
      */
     private final transient Dynamo dynamo;
 
+    /**
+     * Index of the latest snapshot.
+     */
+    private final transient AtomicReference<DynamoHosts.Index> index =
+        new AtomicReference<DynamoHosts.Index>(
+            new DynamoHosts.Index(ImmutableMap.<URN, Domains>of())
+        );
+
+    /**
+     * Names recently found unknown, with messages of exceptions to throw
+     * for them.
+     */
+    private final transient Cache<String, String> unknown =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(DynamoHosts.FORGET, TimeUnit.SECONDS)
+            .maximumSize(DynamoHosts.UNKNOWN)
+            .build();
+
+    /**
+     * Hosts of domains.
+     */
+    private final transient Registry registry = new Registry();
+
     /**
      * Default ctor.
      */
     public DynamoHosts() {
-        this(new DefaultDynamo());
+        this(new SnapshotDynamo(new DefaultDynamo()));
     }
 
     /**
@@ -86,25 +150,28 @@ public final class DynamoHosts implements Hosts {
         @NotNull(message = "host name can't be NULL")
         @Pattern(regexp = "[a-zA-Z0-9\\-\\.]+", message = "invalid host name")
         final String name) throws IOException {
-        final Domain domain = this.byName(name);
+        final String key = Domains.normalize(name);
+        final Domain domain = this.current().domain(key);
         if (domain == null) {
-            throw new Hosts.NotFoundException(
-                String.format(
+            String message = this.unknown.getIfPresent(key);
+            if (message == null) {
+                message = String.format(
                     // @checkstyle LineLength (1 line)
                     "host '%s' not found, register it at www.s3auth.com and wait for 10 minutes",
                     name
-                )
-            );
+                );
+                this.unknown.put(key, message);
+            }
+            throw new Hosts.NotFoundException(message);
         }
-        return new SmartHost(new DefaultHost(new DefaultBucket(domain)));
+        return this.registry.get(domain);
     }
 
     @Override
     @NotNull
     public Set<Domain> domains(@NotNull @Valid final User user)
         throws IOException {
-        final Map<URN, Domains> data = this.dynamo.load();
-        Domains domains = data.get(user.identity());
+        Domains domains = this.current().users.get(user.identity());
         if (domains == null) {
             domains = new Domains();
         }
@@ -113,6 +180,7 @@ public final class DynamoHosts implements Hosts {
 
     @Override
     public void close() throws IOException {
+        this.registry.close();
         this.dynamo.close();
     }
 
@@ -143,8 +211,8 @@ public final class DynamoHosts implements Hosts {
     private boolean remove(final URN user, final Domain domain) {
         boolean removed = false;
         try {
-            final Map<URN, Domains> data = this.dynamo.load();
-            if (data.containsKey(user) && data.get(user).contains(domain)) {
+            final Domains domains = this.current().users.get(user);
+            if (domains != null && domains.contains(domain)) {
                 removed = this.dynamo.remove(domain);
             }
         } catch (IOException ex) {
@@ -160,19 +228,108 @@ public final class DynamoHosts implements Hosts {
      * @throws IOException If something goes wrong
      */
     private Domain byName(final String name) throws IOException {
-        Domain domain = null;
-        for (final Set<Domain> domains : this.dynamo.load().values()) {
-            for (final Domain candidate : domains) {
-                if (candidate.name().equals(name)) {
-                    domain = candidate;
-                    break;
+        return this.current().domain(Domains.normalize(name));
+    }
+
+    /**
+     * Get index of the latest snapshot, rebuilding it if necessary.
+     *
+     * <p>The index is read before the snapshot is loaded, and a new index
+     * replaces only the index read. Thus an index replaces another one
+     * only if its snapshot was loaded after that other index had been
+     * installed, which means that its snapshot is not older, since
+     * {@link Dynamo#load()} never goes back in time. A thread which
+     * loaded an older snapshot than the index installed meanwhile uses
+     * its own index once, and leaves the newer one in place. Indexes are
+     * installed and hosts of their domains retained under a lock, so that
+     * hosts of domains just added are never closed by a late thread.
+     *
+     * @return The index
+     * @throws IOException If something goes wrong
+     */
+    private DynamoHosts.Index current() throws IOException {
+        final DynamoHosts.Index before = this.index.get();
+        final Map<URN, Domains> data = this.dynamo.load();
+        DynamoHosts.Index idx = before;
+        if (!idx.covers(data)) {
+            idx = new DynamoHosts.Index(data);
+            synchronized (this.registry) {
+                if (this.index.compareAndSet(before, idx)) {
+                    this.unknown.invalidateAll();
+                    this.registry.retain(idx.names);
+                }
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Immutable index of one snapshot of domains.
+     */
+    private static final class Index {
+        /**
+         * The snapshot indexed.
+         */
+        private final transient Map<URN, Domains> source;
+        /**
+         * Domains by their normalized names.
+         */
+        private final transient Map<String, Domain> names;
+        /**
+         * Domains by their owners.
+         */
+        private final transient Map<URN, Domains> users;
+        /**
+         * Bloom filter of normalized names.
+         */
+        private final transient BloomFilter<CharSequence> bloom;
+        /**
+         * Public ctor.
+         * @param data The snapshot to index
+         */
+        Index(final Map<URN, Domains> data) {
+            this.source = data;
+            this.users = ImmutableMap.copyOf(data);
+            final Map<String, Domain> map = new HashMap<String, Domain>(0);
+            for (final Set<Domain> domains : this.users.values()) {
+                for (final Domain domain : domains) {
+                    final String name = Domains.normalize(domain.name());
+                    if (!map.containsKey(name)) {
+                        map.put(name, domain);
+                    }
                 }
             }
-            if (domain != null) {
-                break;
+            this.names = ImmutableMap.copyOf(map);
+            this.bloom = BloomFilter.create(
+                Funnels.stringFunnel(Charsets.UTF_8),
+                Math.max(map.size(), Tv.HUNDRED),
+                DynamoHosts.FALSE_POSITIVES
+            );
+            for (final String name : map.keySet()) {
+                this.bloom.put(name);
+            }
+        }
+        /**
+         * Find domain by normalized name.
+         * @param name Normalized name of domain
+         * @return Domain found or NULL
+         */
+        public Domain domain(final String name) {
+            Domain domain = null;
+            if (this.bloom.mightContain(name)) {
+                domain = this.names.get(name);
             }
+            return domain;
+        }
+        /**
+         * Is it an index of this very snapshot?
+         * @param data The snapshot
+         * @return TRUE if it is
+         */
+        @SuppressWarnings("PMD.CompareObjectsWithEquals")
+        public boolean covers(final Map<URN, Domains> data) {
+            return this.source == data;
         }
-        return domain;
     }
 
     /**
@@ -0,0 +1,726 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.validation.constraints.NotNull;
+import lombok.EqualsAndHashCode;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Hot S3 objects, kept in memory.
+ *
+ * <p>Content of small objects requested entirely is kept in memory by
+ * bucket, key and ETag, so that the next request for the same version of
+ * the object is served without reading it from S3. Metadata of the object
+ * are still obtained by {@link DefaultResource}, and give the ETag.
+ * Objects are kept within a budget of bytes.
+ *
+ * <p>Admission is W-TinyLFU: a new object enters a small window
+ * ({@link #WINDOW} percent of the budget, but never smaller than the
+ * largest object kept, so that any object kept gets a chance to be
+ * requested again before its admission) and, when pushed out of it,
+ * replaces the least recently used objects of the main area only if it was
+ * requested more often than them, according to a frequency sketch. Thus
+ * a scan of objects requested once can't wash out objects requested all
+ * the time.
+ *
+ * <p>{@code Cache-Control} of objects is honoured: objects with
+ * {@code no-store}, {@code no-cache} or {@code private} are not kept,
+ * and {@code s-maxage} or {@code max-age} limit the time they are kept.
+ *
+ * <p>The class is mutable and thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ * @see DefaultHost
+ */
+@EqualsAndHashCode(of = { "budget", "largest" })
+@Loggable(Loggable.DEBUG)
+final class HotObjects {
+
+    /**
+     * Default budget, in bytes.
+     */
+    // @checkstyle MagicNumber (1 line)
+    public static final long BUDGET = 64L * 1024L * 1024L;
+
+    /**
+     * Default size of the largest object to keep, in bytes.
+     */
+    // @checkstyle MagicNumber (1 line)
+    public static final int LARGEST = 1024 * 1024;
+
+    /**
+     * Percent of the budget given to the window.
+     */
+    public static final int WINDOW = 1;
+
+    /**
+     * Name of HTTP header with caching directives, with colon.
+     */
+    private static final String CACHE_CONTROL = "cache-control:";
+
+    /**
+     * Budget, in bytes.
+     */
+    private final transient long budget;
+
+    /**
+     * Size of the largest object to keep, in bytes.
+     */
+    private final transient int largest;
+
+    /**
+     * Size of the window, in bytes.
+     */
+    private final transient long wlimit;
+
+    /**
+     * Objects recently added, in order of access.
+     */
+    private final transient Map<String, HotObjects.Entry> window =
+        new LinkedHashMap<String, HotObjects.Entry>(Tv.HUNDRED, 0.75f, true);
+
+    /**
+     * Objects admitted, in order of access.
+     */
+    private final transient Map<String, HotObjects.Entry> main =
+        new LinkedHashMap<String, HotObjects.Entry>(Tv.HUNDRED, 0.75f, true);
+
+    /**
+     * Frequencies of requests of objects.
+     */
+    private final transient HotObjects.Sketch sketch =
+        new HotObjects.Sketch();
+
+    /**
+     * Bytes in the window.
+     */
+    private transient long wbytes;
+
+    /**
+     * Bytes in the main area.
+     */
+    private transient long mbytes;
+
+    /**
+     * Public ctor.
+     */
+    HotObjects() {
+        this(HotObjects.BUDGET, HotObjects.LARGEST);
+    }
+
+    /**
+     * Public ctor.
+     * @param bdgt Budget, in bytes
+     * @param lrgst Size of the largest object to keep, in bytes
+     */
+    HotObjects(final long bdgt, final int lrgst) {
+        this.budget = bdgt;
+        this.largest = lrgst;
+        this.wlimit = Math.min(
+            bdgt, Math.max(bdgt * HotObjects.WINDOW / Tv.HUNDRED, lrgst)
+        );
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+            "%d objects, %d bytes of %d",
+            this.window.size() + this.main.size(),
+            this.wbytes + this.mbytes,
+            this.budget
+        );
+    }
+
+    /**
+     * Make a resource of an S3 object, served from memory if possible.
+     *
+     * <p>If the object is in memory, the resource returned writes it from
+     * there, taking everything else from the original resource. Otherwise,
+     * the resource returned writes the original one, remembering what was
+     * written.
+     *
+     * @param bucket Name of the bucket
+     * @param key Key of the object
+     * @param range Range requested
+     * @param origin Original resource, made of metadata of the object
+     * @return The resource
+     * @checkstyle ParameterNumber (4 lines)
+     */
+    @NotNull
+    public Resource resource(@NotNull final String bucket,
+        @NotNull final String key, @NotNull final Range range,
+        @NotNull final Resource origin) {
+        Resource resource = origin;
+        final String etag = origin.etag();
+        if (etag != null && range.equals(Range.ENTIRE)) {
+            final String id = String.format("%s/%s#%s", bucket, key, etag);
+            final byte[] data = this.get(id);
+            if (data == null) {
+                resource = new HotObjects.Recording(id, origin);
+            } else {
+                resource = new HotObjects.Cached(origin, data);
+            }
+        }
+        return resource;
+    }
+
+    /**
+     * Get content of the object, if it is in memory.
+     * @param id Identifier of the object version
+     * @return Content or NULL if not in memory
+     */
+    private synchronized byte[] get(final String id) {
+        this.sketch.increment(id);
+        HotObjects.Entry entry = this.window.get(id);
+        if (entry == null) {
+            entry = this.main.get(id);
+        }
+        byte[] data = null;
+        if (entry != null) {
+            if (entry.alive()) {
+                data = entry.data;
+            } else {
+                this.remove(id);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Put content of the object to the window, pushing the least recently
+     * used objects from there to the main area, if they are admitted.
+     * @param id Identifier of the object version
+     * @param data Content of the object
+     * @param expires When it expires, in millis
+     */
+    private synchronized void put(final String id, final byte[] data,
+        final long expires) {
+        if (data.length <= this.largest && !this.window.containsKey(id)
+            && !this.main.containsKey(id)) {
+            this.window.put(id, new HotObjects.Entry(data, expires));
+            this.wbytes += data.length;
+            while (this.wbytes > this.wlimit) {
+                final Iterator<Map.Entry<String, HotObjects.Entry>> eldest =
+                    this.window.entrySet().iterator();
+                final Map.Entry<String, HotObjects.Entry> candidate =
+                    eldest.next();
+                eldest.remove();
+                this.wbytes -= candidate.getValue().data.length;
+                this.admit(candidate.getKey(), candidate.getValue());
+            }
+        }
+    }
+
+    /**
+     * Admit the object to the main area, if it was requested more often
+     * than the objects it has to replace.
+     * @param id Identifier of the object version
+     * @param entry The object
+     */
+    private void admit(final String id, final HotObjects.Entry entry) {
+        final long limit = this.budget - this.wlimit;
+        final int frequency = this.sketch.frequency(id);
+        boolean admitted = entry.data.length <= limit;
+        while (admitted && this.mbytes + entry.data.length > limit) {
+            final Iterator<Map.Entry<String, HotObjects.Entry>> eldest =
+                this.main.entrySet().iterator();
+            final Map.Entry<String, HotObjects.Entry> victim = eldest.next();
+            if (!victim.getValue().alive()
+                || frequency > this.sketch.frequency(victim.getKey())) {
+                eldest.remove();
+                this.mbytes -= victim.getValue().data.length;
+            } else {
+                admitted = false;
+            }
+        }
+        if (admitted) {
+            this.main.put(id, entry);
+            this.mbytes += entry.data.length;
+        }
+    }
+
+    /**
+     * Remove the object.
+     * @param id Identifier of the object version
+     */
+    private void remove(final String id) {
+        HotObjects.Entry entry = this.window.remove(id);
+        if (entry == null) {
+            entry = this.main.remove(id);
+            if (entry != null) {
+                this.mbytes -= entry.data.length;
+            }
+        } else {
+            this.wbytes -= entry.data.length;
+        }
+    }
+
+    /**
+     * When an object with these HTTP headers expires.
+     * @param headers HTTP headers of the object
+     * @return When it expires, in millis, or zero if it can't be kept
+     */
+    private static long expires(final Collection<String> headers) {
+        long age = Long.MAX_VALUE;
+        long shared = Long.MAX_VALUE;
+        boolean kept = true;
+        for (final String header : headers) {
+            if (!header.toLowerCase(Locale.ENGLISH)
+                .startsWith(HotObjects.CACHE_CONTROL)) {
+                continue;
+            }
+            final String[] directives = header
+                .substring(HotObjects.CACHE_CONTROL.length())
+                .toLowerCase(Locale.ENGLISH)
+                .split(",");
+            for (final String directive : directives) {
+                final String name = StringUtils.substringBefore(
+                    directive, "="
+                ).trim();
+                final String value = StringUtils.substringAfter(
+                    directive, "="
+                ).trim();
+                if ("no-store".equals(name) || "no-cache".equals(name)
+                    || "private".equals(name)) {
+                    kept = false;
+                } else if (StringUtils.isNumeric(value) && !value.isEmpty()) {
+                    if ("max-age".equals(name)) {
+                        age = Long.parseLong(value);
+                    } else if ("s-maxage".equals(name)) {
+                        shared = Long.parseLong(value);
+                    }
+                }
+            }
+        }
+        if (shared != Long.MAX_VALUE) {
+            age = shared;
+        }
+        final long expires;
+        if (!kept || age == 0L) {
+            expires = 0L;
+        } else if (age == Long.MAX_VALUE) {
+            expires = Long.MAX_VALUE;
+        } else {
+            expires = System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(age);
+        }
+        return expires;
+    }
+
+    /**
+     * Object in memory.
+     */
+    private static final class Entry {
+        /**
+         * Content of it.
+         */
+        private final transient byte[] data;
+        /**
+         * When it expires, in millis.
+         */
+        private final transient long expires;
+        /**
+         * Public ctor.
+         * @param content Content of it
+         * @param exp When it expires, in millis
+         */
+        Entry(final byte[] content, final long exp) {
+            this.data = content;
+            this.expires = exp;
+        }
+        /**
+         * Is it still alive?
+         * @return TRUE if not expired yet
+         */
+        public boolean alive() {
+            return System.currentTimeMillis() < this.expires;
+        }
+    }
+
+    /**
+     * Count-min sketch of frequencies of requests, with four-bit counters
+     * halved periodically, so that old popularity fades away.
+     */
+    private static final class Sketch {
+        /**
+         * Number of bits in a position in a row.
+         */
+        private static final int BITS = 16;
+        /**
+         * Number of counters in every row.
+         */
+        private static final int WIDTH = 1 << HotObjects.Sketch.BITS;
+        /**
+         * Maximum value of a counter.
+         */
+        private static final int MAX = Tv.FIFTEEN;
+        /**
+         * Seeds of hash functions, one per row.
+         */
+        private static final int[] SEEDS = {
+            // @checkstyle MagicNumber (1 line)
+            0x97CB3127, 0xAB4F1A2D, 0x8C4D1B3F, 0xC2B2AE35,
+        };
+        /**
+         * Counters, row after row.
+         */
+        private final transient byte[] counters =
+            new byte[HotObjects.Sketch.WIDTH * HotObjects.Sketch.SEEDS.length];
+        /**
+         * Increments since counters were halved last time.
+         */
+        private transient int additions;
+        /**
+         * Count one more request of the object.
+         * @param id Identifier of the object version
+         */
+        public void increment(final String id) {
+            boolean added = false;
+            for (int row = 0; row < HotObjects.Sketch.SEEDS.length; ++row) {
+                final int idx = HotObjects.Sketch.index(id, row);
+                if (this.counters[idx] < HotObjects.Sketch.MAX) {
+                    ++this.counters[idx];
+                    added = true;
+                }
+            }
+            if (added) {
+                ++this.additions;
+                if (this.additions >= Tv.TEN * HotObjects.Sketch.WIDTH) {
+                    this.halve();
+                }
+            }
+        }
+        /**
+         * Estimate how many times the object was requested.
+         * @param id Identifier of the object version
+         * @return Frequency of requests
+         */
+        public int frequency(final String id) {
+            int frequency = HotObjects.Sketch.MAX;
+            for (int row = 0; row < HotObjects.Sketch.SEEDS.length; ++row) {
+                frequency = Math.min(
+                    frequency,
+                    this.counters[HotObjects.Sketch.index(id, row)]
+                );
+            }
+            return frequency;
+        }
+        /**
+         * Halve all counters.
+         */
+        private void halve() {
+            for (int idx = 0; idx < this.counters.length; ++idx) {
+                this.counters[idx] = (byte) (this.counters[idx] >> 1);
+            }
+            this.additions /= 2;
+        }
+        /**
+         * Position of the counter of the object in the row.
+         * @param id Identifier of the object version
+         * @param row The row
+         * @return Position in the array of counters
+         */
+        private static int index(final String id, final int row) {
+            int hash = id.hashCode() * HotObjects.Sketch.SEEDS[row];
+            hash ^= hash >>> HotObjects.Sketch.BITS;
+            return row * HotObjects.Sketch.WIDTH
+                + (hash & (HotObjects.Sketch.WIDTH - 1));
+        }
+    }
+
+    /**
+     * Resource written from memory, closing the original resource, which
+     * is not written.
+     */
+    private static final class Cached implements Resource, Closeable {
+        /**
+         * Original resource.
+         */
+        private final transient Resource origin;
+        /**
+         * Content of it.
+         */
+        private final transient byte[] data;
+        /**
+         * Public ctor.
+         * @param res Original resource
+         * @param content Content of it
+         */
+        Cached(final Resource res, final byte[] content) {
+            this.origin = res;
+            this.data = content;
+        }
+        @Override
+        public int status() {
+            return this.origin.status();
+        }
+        @Override
+        public long writeTo(final OutputStream stream) throws IOException {
+            stream.write(this.data);
+            this.close();
+            return this.data.length;
+        }
+        @Override
+        public InputStream content() throws IOException {
+            this.close();
+            return new ByteArrayInputStream(this.data);
+        }
+        @Override
+        public Collection<String> headers() throws IOException {
+            return this.origin.headers();
+        }
+        @Override
+        public String etag() {
+            return this.origin.etag();
+        }
+        @Override
+        public Date lastModified() {
+            return this.origin.lastModified();
+        }
+        @Override
+        public void close() throws IOException {
+            if (this.origin instanceof Closeable) {
+                Closeable.class.cast(this.origin).close();
+            }
+        }
+    }
+
+    /**
+     * Resource remembering its content when written or read.
+     */
+    private final class Recording implements Resource, Closeable {
+        /**
+         * Identifier of the object version.
+         */
+        private final transient String id;
+        /**
+         * Original resource.
+         */
+        private final transient Resource origin;
+        /**
+         * Public ctor.
+         * @param ident Identifier of the object version
+         * @param res Original resource
+         */
+        Recording(final String ident, final Resource res) {
+            this.id = ident;
+            this.origin = res;
+        }
+        @Override
+        public int status() {
+            return this.origin.status();
+        }
+        @Override
+        public long writeTo(final OutputStream stream) throws IOException {
+            final HotObjects.Tee tee =
+                new HotObjects.Tee(stream, HotObjects.this.largest);
+            final long total = this.origin.writeTo(tee);
+            this.remember(tee.data(), total);
+            return total;
+        }
+        @Override
+        public InputStream content() throws IOException {
+            final HotObjects.Tee tee = new HotObjects.Tee(
+                NullOutputStream.NULL_OUTPUT_STREAM, HotObjects.this.largest
+            );
+            return new HotObjects.Recording.Content(
+                new TeeInputStream(this.origin.content(), tee), tee
+            );
+        }
+        @Override
+        public Collection<String> headers() throws IOException {
+            return this.origin.headers();
+        }
+        @Override
+        public String etag() {
+            return this.origin.etag();
+        }
+        @Override
+        public Date lastModified() {
+            return this.origin.lastModified();
+        }
+        @Override
+        public void close() throws IOException {
+            if (this.origin instanceof Closeable) {
+                Closeable.class.cast(this.origin).close();
+            }
+        }
+        /**
+         * Keep the content written or read completely, if it is small.
+         * @param data Copy of the content, or NULL if it is too big
+         * @param total Length of the content
+         * @throws IOException If fails to get headers
+         */
+        private void remember(final byte[] data, final long total)
+            throws IOException {
+            if (data != null && data.length == total) {
+                final long expires = HotObjects.expires(this.headers());
+                if (expires > System.currentTimeMillis()) {
+                    HotObjects.this.put(this.id, data, expires);
+                }
+            }
+        }
+        /**
+         * Content being read, remembered when read till its end.
+         */
+        private final class Content extends ProxyInputStream {
+            /**
+             * Copy of bytes read.
+             */
+            private final transient HotObjects.Tee tee;
+            /**
+             * Bytes read so far.
+             */
+            private transient long total;
+            /**
+             * Is the end of the stream reached?
+             */
+            private transient boolean done;
+            /**
+             * Public ctor.
+             * @param stream The stream copied into the tee
+             * @param copy Copy of bytes read
+             */
+            Content(final InputStream stream, final HotObjects.Tee copy) {
+                super(stream);
+                this.tee = copy;
+            }
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (this.done) {
+                    HotObjects.Recording.this.remember(
+                        this.tee.data(), this.total
+                    );
+                }
+            }
+            @Override
+            protected void afterRead(final int count) {
+                if (count < 0) {
+                    this.done = true;
+                } else {
+                    this.total += count;
+                }
+            }
+        }
+    }
+
+    /**
+     * Output stream copying everything written, up to a limit.
+     */
+    private static final class Tee extends OutputStream {
+        /**
+         * Original stream.
+         */
+        private final transient OutputStream origin;
+        /**
+         * Maximum number of bytes to copy.
+         */
+        private final transient int limit;
+        /**
+         * Copy of bytes written, or NULL if there are too many.
+         */
+        private transient ByteArrayOutputStream copy =
+            new ByteArrayOutputStream();
+        /**
+         * Public ctor.
+         * @param stream Original stream
+         * @param max Maximum number of bytes to copy
+         */
+        Tee(final OutputStream stream, final int max) {
+            super();
+            this.origin = stream;
+            this.limit = max;
+        }
+        @Override
+        public void write(final int data) throws IOException {
+            this.origin.write(data);
+            this.copy(new byte[] {(byte) data}, 0, 1);
+        }
+        @Override
+        public void write(final byte[] data, final int off, final int len)
+            throws IOException {
+            this.origin.write(data, off, len);
+            this.copy(data, off, len);
+        }
+        @Override
+        public void flush() throws IOException {
+            this.origin.flush();
+        }
+        /**
+         * Bytes written.
+         * @return Bytes or NULL if there were too many
+         */
+        public byte[] data() {
+            byte[] data = null;
+            if (this.copy != null) {
+                data = this.copy.toByteArray();
+            }
+            return data;
+        }
+        /**
+         * Copy bytes written, until there are too many.
+         * @param data Bytes
+         * @param off Offset
+         * @param len Length
+         */
+        private void copy(final byte[] data, final int off, final int len) {
+            if (this.copy != null) {
+                if (this.copy.size() + len > this.limit) {
+                    this.copy = null;
+                } else {
+                    this.copy.write(data, off, len);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
+import java.util.concurrent.TimeUnit;
+import javax.validation.constraints.NotNull;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * Metadata of S3 objects of one bucket, kept in memory for a short time.
+ *
+ * <p>Metadata are taken from {@code HEAD} requests (see
+ * {@link com.amazonaws.services.s3.AmazonS3#getObjectMetadata(String,String)})
+ * and from responses to {@code GET} requests of entire objects. Only the
+ * ETag, last modification date, length, content type and cache control
+ * are kept. With them at hand, a resource can be built and a conditional
+ * HTTP request answered without opening the object.
+ *
+ * <p>Metadata are trusted for {@link #LIFETIME} seconds, so that
+ * a changed object is noticed soon. After that they are still remembered
+ * for {@link #RECENT} minutes, as metadata seen recently, which may be
+ * used to revalidate the object with S3 by a conditional request.
+ *
+ * <p>The class is mutable and thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ * @see DefaultResource
+ */
+@ToString(of = "cache")
+@EqualsAndHashCode(of = "cache")
+@Loggable(Loggable.DEBUG)
+final class Metadata {
+
+    /**
+     * Default maximum number of objects to remember.
+     */
+    public static final int MAX = Tv.TEN * Tv.THOUSAND;
+
+    /**
+     * Seconds to trust metadata of an object.
+     */
+    public static final int LIFETIME = Tv.SIXTY;
+
+    /**
+     * Minutes to remember metadata of an object seen recently.
+     */
+    public static final int RECENT = Tv.TEN;
+
+    /**
+     * Metadata by object keys.
+     */
+    private final transient Cache<String, Metadata.Seen> cache;
+
+    /**
+     * Seconds to trust metadata.
+     */
+    private final transient int lifetime;
+
+    /**
+     * Public ctor.
+     */
+    Metadata() {
+        this(Metadata.MAX);
+    }
+
+    /**
+     * Public ctor.
+     * @param max Maximum number of objects to remember
+     */
+    Metadata(final int max) {
+        this(max, Metadata.LIFETIME);
+    }
+
+    /**
+     * Public ctor.
+     * @param max Maximum number of objects to remember
+     * @param life Seconds to trust metadata of an object
+     */
+    Metadata(final int max, final int life) {
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(max)
+            .expireAfterWrite(Metadata.RECENT, TimeUnit.MINUTES)
+            .build();
+        this.lifetime = life;
+    }
+
+    /**
+     * Get metadata of the object, if we know them and they can be trusted.
+     * @param key Key of the object
+     * @return Metadata or NULL if unknown
+     */
+    public ObjectMetadata get(@NotNull final String key) {
+        final Metadata.Seen seen = this.cache.getIfPresent(key);
+        ObjectMetadata meta = null;
+        if (seen != null && System.currentTimeMillis() - seen.time
+            < TimeUnit.SECONDS.toMillis(this.lifetime)) {
+            meta = seen.meta;
+        }
+        return meta;
+    }
+
+    /**
+     * Get metadata of the object seen recently, even if they can't be
+     * trusted anymore.
+     * @param key Key of the object
+     * @return Metadata or NULL if not seen recently
+     */
+    public ObjectMetadata recent(@NotNull final String key) {
+        final Metadata.Seen seen = this.cache.getIfPresent(key);
+        ObjectMetadata meta = null;
+        if (seen != null) {
+            meta = seen.meta;
+        }
+        return meta;
+    }
+
+    /**
+     * Remember metadata of the entire object.
+     * @param key Key of the object
+     * @param meta Metadata of it, as received from S3
+     */
+    public void put(@NotNull final String key,
+        @NotNull final ObjectMetadata meta) {
+        final ObjectMetadata copy = new ObjectMetadata();
+        copy.setContentLength(meta.getContentLength());
+        copy.setContentType(meta.getContentType());
+        copy.setCacheControl(meta.getCacheControl());
+        copy.setLastModified(meta.getLastModified());
+        copy.setHeader(Headers.ETAG, meta.getETag());
+        this.cache.put(key, new Metadata.Seen(copy));
+    }
+
+    /**
+     * Forget metadata of the object.
+     * @param key Key of the object
+     */
+    public void invalidate(@NotNull final String key) {
+        this.cache.invalidate(key);
+    }
+
+    /**
+     * Metadata seen at some moment.
+     */
+    private static final class Seen {
+        /**
+         * The metadata.
+         */
+        private final transient ObjectMetadata meta;
+        /**
+         * When they were seen, in millis.
+         */
+        private final transient long time;
+        /**
+         * Public ctor.
+         * @param mtdt The metadata
+         */
+        Seen(final ObjectMetadata mtdt) {
+            this.meta = mtdt;
+            this.time = System.currentTimeMillis();
+        }
+    }
+
+}
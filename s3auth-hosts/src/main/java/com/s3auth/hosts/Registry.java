@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import com.jcabi.aspects.Loggable;
+import com.jcabi.log.Logger;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.validation.constraints.NotNull;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * Registry of hosts, one long-lived {@link Host} per domain.
+ *
+ * <p>A host is made once for a domain and then returned for every
+ * request to it, together with everything it keeps inside (the
+ * {@code .htpasswd} file, for example). When the record of the domain
+ * changes (new credentials, bucket, region or syslog), the host is
+ * replaced. Hosts of domains which are not registered any more are
+ * evicted by {@link #retain(Map)}. Replaced and evicted hosts are closed.
+ *
+ * <p>The class is mutable and thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ * @see DynamoHosts
+ */
+@ToString(of = "hosts")
+@EqualsAndHashCode(of = "hosts")
+@Loggable(Loggable.DEBUG)
+final class Registry implements Closeable {
+
+    /**
+     * Hosts by normalized names of their domains.
+     */
+    private final transient ConcurrentMap<String, Registry.Entry> hosts =
+        new ConcurrentHashMap<String, Registry.Entry>(0);
+
+    /**
+     * Get host of the domain, making it if necessary.
+     * @param domain The domain
+     * @return The host
+     * @throws IOException If fails to close a replaced host
+     */
+    @NotNull
+    public Host get(@NotNull final Domain domain) throws IOException {
+        final String name = Domains.normalize(domain.name());
+        Registry.Entry entry = this.hosts.get(name);
+        if (entry == null || !entry.serves(domain)) {
+            final Registry.Entry fresh = new Registry.Entry(domain);
+            final Registry.Entry before;
+            if (entry == null) {
+                before = this.hosts.putIfAbsent(name, fresh);
+            } else if (this.hosts.replace(name, entry, fresh)) {
+                before = null;
+                entry.close();
+            } else {
+                before = this.hosts.get(name);
+            }
+            if (before == null) {
+                entry = fresh;
+            } else {
+                entry = before;
+                fresh.close();
+            }
+        }
+        return entry.host;
+    }
+
+    /**
+     * Evict and close hosts of domains which are not registered any more
+     * or which records changed.
+     * @param domains Registered domains, by their normalized names
+     * @throws IOException If fails to close some host
+     */
+    public void retain(@NotNull final Map<String, Domain> domains)
+        throws IOException {
+        for (final Map.Entry<String, Registry.Entry> pair
+            : this.hosts.entrySet()) {
+            final Domain domain = domains.get(pair.getKey());
+            if ((domain == null || !pair.getValue().serves(domain))
+                && this.hosts.remove(pair.getKey(), pair.getValue())) {
+                Logger.info(
+                    this, "#retain(): host of '%s' evicted", pair.getKey()
+                );
+                pair.getValue().close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.retain(new ConcurrentHashMap<String, Domain>(0));
+    }
+
+    /**
+     * Host of one domain.
+     */
+    @ToString(of = "domain")
+    @EqualsAndHashCode(of = "domain")
+    private static final class Entry implements Closeable {
+        /**
+         * The domain served.
+         */
+        private final transient Domain domain;
+        /**
+         * The host.
+         */
+        private final transient Host host;
+        /**
+         * Public ctor.
+         * @param dmn The domain
+         */
+        Entry(final Domain dmn) {
+            this.domain = dmn;
+            this.host = new SmartHost(new DefaultHost(new DefaultBucket(dmn)));
+        }
+        /**
+         * Does it serve exactly this record of domain?
+         * @param dmn The domain
+         * @return TRUE if names, credentials, bucket, region and syslog
+         *  of the domain are the same as ours
+         */
+        public boolean serves(final Domain dmn) {
+            return Domains.normalize(this.domain.name())
+                .equals(Domains.normalize(dmn.name()))
+                && Registry.same(this.domain.key(), dmn.key())
+                && Registry.same(this.domain.secret(), dmn.secret())
+                && Registry.same(this.domain.bucket(), dmn.bucket())
+                && Registry.same(this.domain.region(), dmn.region())
+                && Registry.same(this.domain.syslog(), dmn.syslog());
+        }
+        @Override
+        public void close() throws IOException {
+            this.host.close();
+        }
+    }
+
+    /**
+     * Are these values the same?
+     * @param first First value, may be NULL
+     * @param second Second value, may be NULL
+     * @return TRUE if they are equal or both are NULL
+     */
+    private static boolean same(final String first, final String second) {
+        final boolean same;
+        if (first == null) {
+            same = second == null;
+        } else {
+            same = first.equals(second);
+        }
+        return same;
+    }
+
+}
@@ -31,7 +31,9 @@ package com.s3auth.hosts;
 
 import com.jcabi.aspects.Immutable;
 import com.jcabi.aspects.Loggable;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.util.Arrays;
@@ -68,6 +70,18 @@ public interface Resource {
      */
     long writeTo(OutputStream stream) throws IOException;
 
+    /**
+     * Open its content for reading, instead of writing it.
+     *
+     * <p>The stream is read at the pace of the caller, which may stop
+     * reading for a while, and must be closed by the caller. Closing it
+     * before its end releases everything the content is read from.
+     *
+     * @return The stream to read the content from
+     * @throws IOException If some error with I/O inside
+     */
+    InputStream content() throws IOException;
+
     /**
      * Get a collection of all necessary HTTP headers for this resource.
      * @return Collection of HTTP headers
@@ -122,6 +136,10 @@ public interface Resource {
             return this.text.getBytes().length;
         }
         @Override
+        public InputStream content() {
+            return new ByteArrayInputStream(this.text.getBytes());
+        }
+        @Override
         public String etag() {
             return DigestUtils.md5Hex(this.text);
         }
@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import com.jcabi.aspects.Loggable;
+import com.jcabi.log.Logger;
+import com.jcabi.log.VerboseRunnable;
+import com.jcabi.log.VerboseThreads;
+import com.jcabi.urn.URN;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.validation.constraints.NotNull;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Dynamo with a snapshot in memory, refreshed in background.
+ *
+ * <p>The first {@link #load()} reads the table from the origin. After
+ * that a background thread loads it again every few minutes and swaps
+ * the snapshot, while {@link #load()} always returns the last snapshot
+ * without blocking. When the origin fails, the old snapshot stays and
+ * is served until the next successful refresh; {@link #staleness()}
+ * tells how old it is (it's also reported by {@link #toString()}).
+ * Changes made through {@link #add(URN,Domain)} and
+ * {@link #remove(Domain)} refresh the snapshot at once; if only that
+ * refresh fails, the change is still reported as made, and shows up
+ * after the next successful refresh.
+ *
+ * <p>Refreshes may run at the same time (in background and after
+ * a change). Every refresh gets a generation number before it starts
+ * loading, and its snapshot replaces the current one only if it's of
+ * a later generation, so a slow load never overwrites data loaded after
+ * it started.
+ *
+ * <p>The class is mutable and thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ */
+@EqualsAndHashCode(of = "origin")
+@Loggable(Loggable.DEBUG)
+final class SnapshotDynamo implements Dynamo {
+
+    /**
+     * Default period between refreshes, in seconds.
+     */
+    private static final long PERIOD = TimeUnit.MINUTES.toSeconds(1L);
+
+    /**
+     * Origin dynamo.
+     */
+    private final transient Dynamo origin;
+
+    /**
+     * The last snapshot loaded, or NULL if nothing loaded yet.
+     */
+    private final transient AtomicReference<SnapshotDynamo.Snapshot> last =
+        new AtomicReference<SnapshotDynamo.Snapshot>();
+
+    /**
+     * Generation of the latest refresh started.
+     */
+    private final transient AtomicLong generation = new AtomicLong();
+
+    /**
+     * Thread refreshing the snapshot.
+     */
+    private final transient ScheduledExecutorService refresher =
+        Executors.newSingleThreadScheduledExecutor(
+            new VerboseThreads("dynamo-refresh")
+        );
+
+    /**
+     * Public ctor.
+     * @param dnm Origin dynamo
+     */
+    SnapshotDynamo(@NotNull final Dynamo dnm) {
+        this(dnm, SnapshotDynamo.PERIOD);
+    }
+
+    /**
+     * Public ctor.
+     * @param dnm Origin dynamo
+     * @param period Period between refreshes, in seconds
+     */
+    SnapshotDynamo(@NotNull final Dynamo dnm, final long period) {
+        this.origin = dnm;
+        this.refresher.scheduleWithFixedDelay(
+            new VerboseRunnable(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        SnapshotDynamo.this.renew();
+                    }
+                },
+                true, false
+            ),
+            period, period, TimeUnit.SECONDS
+        );
+    }
+
+    @Override
+    @NotNull
+    public Map<URN, Domains> load() throws IOException {
+        SnapshotDynamo.Snapshot snapshot = this.last.get();
+        if (snapshot == null) {
+            synchronized (this.last) {
+                snapshot = this.last.get();
+                if (snapshot == null) {
+                    snapshot = this.refresh();
+                }
+            }
+        }
+        return snapshot.domains;
+    }
+
+    @Override
+    public boolean add(@NotNull final URN user,
+        @NotNull final Domain domain) throws IOException {
+        final boolean added = this.origin.add(user, domain);
+        this.renew();
+        return added;
+    }
+
+    @Override
+    public boolean remove(@NotNull final Domain domain) throws IOException {
+        final boolean removed = this.origin.remove(domain);
+        this.renew();
+        return removed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.refresher.shutdownNow();
+        this.origin.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s, snapshot is %d ms old", this.origin, this.staleness()
+        );
+    }
+
+    /**
+     * How old is the snapshot we serve, in milliseconds.
+     * @return Time since the last successful load, or zero if nothing
+     *  was loaded yet
+     */
+    public long staleness() {
+        final SnapshotDynamo.Snapshot snapshot = this.last.get();
+        long age = 0L;
+        if (snapshot != null) {
+            age = System.currentTimeMillis() - snapshot.time;
+        }
+        return age;
+    }
+
+    /**
+     * Load a new snapshot from the origin and make it current.
+     * @return The snapshot loaded
+     * @throws IOException If fails
+     */
+    private SnapshotDynamo.Snapshot refresh() throws IOException {
+        final long gen = this.generation.incrementAndGet();
+        final SnapshotDynamo.Snapshot snapshot =
+            new SnapshotDynamo.Snapshot(this.origin.load(), gen);
+        while (true) {
+            final SnapshotDynamo.Snapshot current = this.last.get();
+            if (current != null && current.generation > gen) {
+                break;
+            }
+            if (this.last.compareAndSet(current, snapshot)) {
+                break;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Refresh the snapshot, keeping the old one on failure.
+     */
+    private void renew() {
+        try {
+            this.refresh();
+        // @checkstyle IllegalCatch (1 line)
+        } catch (final Exception ex) {
+            Logger.warn(
+                this, "#renew(): %[exception]s, serving %[ms]s old data",
+                ex, this.staleness()
+            );
+        }
+    }
+
+    /**
+     * Snapshot of all domains.
+     */
+    private static final class Snapshot {
+        /**
+         * Users and their domains.
+         */
+        private final transient Map<URN, Domains> domains;
+        /**
+         * Generation of the refresh that loaded it.
+         */
+        private final transient long generation;
+        /**
+         * When it was loaded, in milliseconds.
+         */
+        private final transient long time;
+        /**
+         * Public ctor.
+         * @param data Users and their domains
+         * @param gen Generation of the refresh
+         */
+        Snapshot(final Map<URN, Domains> data, final long gen) {
+            this.domains = data;
+            this.generation = gen;
+            this.time = System.currentTimeMillis();
+        }
+    }
+
+}
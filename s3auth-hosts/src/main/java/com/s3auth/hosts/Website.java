@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.BucketWebsiteConfiguration;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
+import com.jcabi.log.Logger;
+import com.jcabi.log.VerboseThreads;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.validation.constraints.NotNull;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * Website configuration of a bucket, as much as we need of it.
+ *
+ * <p>The index document suffix of the bucket is loaded from S3 once
+ * and then kept in memory. After {@link #REFRESH} minutes it is reloaded
+ * in background, while the old value is still returned. When the reload
+ * fails, the old value stays, but not longer than {@link #LIFETIME}
+ * minutes. A bucket without website configuration is remembered too,
+ * with an empty suffix.
+ *
+ * <p>The class is mutable and thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ * @see DefaultHost
+ */
+@ToString(of = "bucket")
+@EqualsAndHashCode(of = "bucket")
+@Loggable(Loggable.DEBUG)
+final class Website {
+
+    /**
+     * Minutes before the configuration is reloaded in background.
+     */
+    public static final int REFRESH = 1;
+
+    /**
+     * Minutes the configuration may be kept without a successful reload.
+     */
+    public static final int LIFETIME = Tv.TEN;
+
+    /**
+     * Threads reloading configurations of all buckets.
+     */
+    private static final ExecutorService RELOADER =
+        Executors.newFixedThreadPool(2, new VerboseThreads("website"));
+
+    /**
+     * The bucket.
+     */
+    private final transient Bucket bucket;
+
+    /**
+     * Index document suffixes by bucket names, empty if there is none.
+     */
+    private final transient LoadingCache<String, String> suffixes;
+
+    /**
+     * Public ctor.
+     * @param bckt The bucket
+     */
+    Website(@NotNull final Bucket bckt) {
+        this.bucket = bckt;
+        this.suffixes = CacheBuilder.newBuilder()
+            .refreshAfterWrite(Website.REFRESH, TimeUnit.MINUTES)
+            .expireAfterWrite(Website.LIFETIME, TimeUnit.MINUTES)
+            .build(
+                new CacheLoader<String, String>() {
+                    @Override
+                    public String load(final String name) {
+                        String suffix;
+                        try {
+                            suffix = Website.this.fetch(name);
+                        } catch (final AmazonClientException ex) {
+                            Logger.warn(
+                                Website.this, "#load(%s): %s",
+                                name, ex.getMessage()
+                            );
+                            suffix = "";
+                        }
+                        return suffix;
+                    }
+                    @Override
+                    public ListenableFuture<String> reload(final String name,
+                        final String old) {
+                        final ListenableFutureTask<String> task =
+                            ListenableFutureTask.create(
+                                new Callable<String>() {
+                                    @Override
+                                    public String call() {
+                                        return Website.this.fetch(name);
+                                    }
+                                }
+                            );
+                        Website.RELOADER.execute(task);
+                        return task;
+                    }
+                }
+            );
+    }
+
+    /**
+     * Index document suffix of the bucket.
+     * @return The suffix, or empty string if the bucket has no website
+     *  configuration
+     */
+    @NotNull
+    public String suffix() {
+        return this.suffixes.getUnchecked(this.bucket.bucket());
+    }
+
+    /**
+     * Fetch index document suffix from S3.
+     * @param name Name of the bucket
+     * @return The suffix, or empty string if there is no configuration
+     */
+    private String fetch(final String name) {
+        final BucketWebsiteConfiguration conf =
+            this.bucket.client().getBucketWebsiteConfiguration(name);
+        String suffix = null;
+        if (conf != null) {
+            suffix = conf.getIndexDocumentSuffix();
+        }
+        if (suffix == null) {
+            suffix = "";
+        }
+        return suffix;
+    }
+
+}
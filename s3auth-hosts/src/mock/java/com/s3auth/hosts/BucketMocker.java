@@ -31,6 +31,7 @@ package com.s3auth.hosts;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import org.apache.commons.io.IOUtils;
@@ -67,7 +68,10 @@ public final class BucketMocker {
                 new HttpGet()
             )
         ).when(object).getObjectContent();
+        Mockito.doReturn(new ObjectMetadata()).when(object).getObjectMetadata();
         final AmazonS3 client = Mockito.mock(AmazonS3.class);
+        Mockito.doReturn(new ObjectMetadata()).when(client)
+            .getObjectMetadata(Mockito.anyString(), Mockito.anyString());
         Mockito.doReturn(object).when(client)
             .getObject(Mockito.any(GetObjectRequest.class));
         this.withClient(client);
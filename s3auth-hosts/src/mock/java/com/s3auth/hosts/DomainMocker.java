@@ -54,6 +54,7 @@ public final class DomainMocker {
         this.withBucket("bucket");
         this.withKey("AAAAAAAAAAAAAAAAAAAA");
         this.withSecret("xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx");
+        this.withSyslog("syslog.s3auth.com:514");
     }
 
     /**
@@ -106,6 +107,16 @@ public final class DomainMocker {
         return this;
     }
 
+    /**
+     * With this syslog host and port.
+     * @param syslog The syslog
+     * @return This object
+     */
+    public DomainMocker withSyslog(final String syslog) {
+        Mockito.doReturn(syslog).when(this.domain).syslog();
+        return this;
+    }
+
     /**
      * Mock it.
      * @return The domain
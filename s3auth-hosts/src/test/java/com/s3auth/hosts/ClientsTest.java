@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.google.common.cache.CacheLoader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import org.apache.http.client.methods.HttpGet;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test case for {@link Clients}.
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ */
+public final class ClientsTest {
+
+    /**
+     * Clients can share a client between equal credentials.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void sharesClients() throws Exception {
+        final Clients clients = new Clients(Clients.MAX);
+        try {
+            final AmazonS3 client = clients.get("key", "secret", "s3");
+            MatcherAssert.assertThat(
+                clients.get("key", "secret", "s3"),
+                Matchers.sameInstance(client)
+            );
+            MatcherAssert.assertThat(
+                clients.get("key", "secret", "s3-eu-west-1"),
+                Matchers.not(Matchers.sameInstance(client))
+            );
+            MatcherAssert.assertThat(
+                clients.get("key", "other", "s3"),
+                Matchers.not(Matchers.sameInstance(client))
+            );
+        } finally {
+            clients.clear();
+        }
+    }
+
+    /**
+     * Clients can evict clients when there are too many of them.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void evictsClients() throws Exception {
+        final Clients clients = new Clients(1);
+        try {
+            final AmazonS3 client = clients.get("first", "secret", "s3");
+            clients.get("second", "secret", "s3");
+            MatcherAssert.assertThat(
+                clients.get("first", "secret", "s3"),
+                Matchers.not(Matchers.sameInstance(client))
+            );
+        } finally {
+            clients.clear();
+        }
+    }
+
+    /**
+     * Clients can keep an evicted client alive, while an object retrieved
+     * through it is being written.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void keepsEvictedClientInUse() throws Exception {
+        final Clients clients = new Clients(
+            1, 0L,
+            new CacheLoader<Clients.Key, AmazonS3Client>() {
+                @Override
+                public AmazonS3Client load(final Clients.Key key) {
+                    final AmazonS3Client client =
+                        Mockito.mock(AmazonS3Client.class);
+                    final S3Object obj = new S3Object();
+                    obj.setObjectContent(
+                        new S3ObjectInputStream(
+                            new ByteArrayInputStream(new byte[] {1, 2}),
+                            new HttpGet()
+                        )
+                    );
+                    Mockito.doReturn(obj).when(client)
+                        .getObject(Mockito.any(GetObjectRequest.class));
+                    return client;
+                }
+            }
+        );
+        try {
+            final AmazonS3Client client = AmazonS3Client.class.cast(
+                clients.get("first", "secret", "s3")
+            );
+            final InputStream input = clients.open(
+                client, new GetObjectRequest("bucket", "key")
+            ).getObjectContent();
+            MatcherAssert.assertThat(input.read(), Matchers.equalTo(1));
+            clients.get("second", "secret", "s3");
+            MatcherAssert.assertThat(input.read(), Matchers.equalTo(2));
+            Mockito.verify(client, Mockito.never()).shutdown();
+            input.close();
+            Mockito.verify(client, Mockito.times(1)).shutdown();
+            input.close();
+            Mockito.verify(client, Mockito.times(1)).shutdown();
+        } finally {
+            clients.clear();
+        }
+    }
+
+}
@@ -31,19 +31,25 @@ package com.s3auth.hosts;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
 import com.amazonaws.services.dynamodbv2.model.ScanRequest;
 import com.amazonaws.services.dynamodbv2.model.ScanResult;
 import com.jcabi.urn.URNMocker;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 /**
  * Test case for {@link DefaultDynamo}.
@@ -59,11 +65,12 @@ public final class DefaultDynamoTest {
      */
     @Test
     public void loadsDynamoConfiguration() throws Exception {
+        final AmazonDynamoDB aws = this.amazon();
         final Dynamo dynamo = new DefaultDynamo(
             new Dynamo.Client() {
                 @Override
                 public AmazonDynamoDB get() {
-                    return DefaultDynamoTest.this.amazon();
+                    return aws;
                 }
             },
             "table"
@@ -72,13 +79,94 @@ public final class DefaultDynamoTest {
             dynamo.load().size(),
             Matchers.equalTo(dynamo.load().size())
         );
-        final int size = dynamo.load().size();
         dynamo.add(new URNMocker().mock(), new DomainMocker().mock());
-        MatcherAssert.assertThat(
-            dynamo.load().size(),
-            Matchers.not(Matchers.equalTo(size))
+        Mockito.verify(aws).putItem(Mockito.any(PutItemRequest.class));
+        dynamo.close();
+    }
+
+    /**
+     * DefaultDynamo can scan all pages of all segments.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void scansAllPagesOfAllSegments() throws Exception {
+        final AmazonDynamoDB aws = Mockito.mock(AmazonDynamoDB.class);
+        final Map<String, AttributeValue> key =
+            new ConcurrentHashMap<String, AttributeValue>(0);
+        key.put(DefaultDynamo.NAME, new AttributeValue("next"));
+        Mockito.doAnswer(
+            new Answer<ScanResult>() {
+                @Override
+                public ScanResult answer(final InvocationOnMock inv) {
+                    final ScanRequest request =
+                        ScanRequest.class.cast(inv.getArguments()[0]);
+                    final ScanResult result = new ScanResult().withItems(
+                        Collections.singletonList(
+                            DefaultDynamoTest.this.item()
+                        )
+                    );
+                    if (request.getExclusiveStartKey() == null) {
+                        result.setLastEvaluatedKey(key);
+                    }
+                    return result;
+                }
+            }
+        ).when(aws).scan(Mockito.any(ScanRequest.class));
+        final int segments = 3;
+        final Dynamo dynamo = new DefaultDynamo(
+            new Dynamo.Client() {
+                @Override
+                public AmazonDynamoDB get() {
+                    return aws;
+                }
+            },
+            "pages",
+            segments
         );
+        int total = 0;
+        for (final Domains domains : dynamo.load().values()) {
+            total += domains.size();
+        }
+        MatcherAssert.assertThat(total, Matchers.equalTo(segments * 2));
+        Mockito.verify(aws, Mockito.times(segments * 2))
+            .scan(Mockito.any(ScanRequest.class));
+        dynamo.close();
+    }
+
+    /**
+     * DefaultDynamo can scan segments by the same threads every time.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void reusesScanningThreads() throws Exception {
+        final Set<Thread> threads = new CopyOnWriteArraySet<Thread>();
+        final AmazonDynamoDB aws = Mockito.mock(AmazonDynamoDB.class);
+        Mockito.doAnswer(
+            new Answer<ScanResult>() {
+                @Override
+                public ScanResult answer(final InvocationOnMock inv) {
+                    threads.add(Thread.currentThread());
+                    return new ScanResult().withItems(
+                        Collections.<Map<String, AttributeValue>>emptyList()
+                    );
+                }
+            }
+        ).when(aws).scan(Mockito.any(ScanRequest.class));
+        final Dynamo dynamo = new DefaultDynamo(
+            new Dynamo.Client() {
+                @Override
+                public AmazonDynamoDB get() {
+                    return aws;
+                }
+            },
+            "threads",
+            2
+        );
+        for (int idx = 0; idx < 2 + 1; ++idx) {
+            dynamo.load();
+        }
         dynamo.close();
+        MatcherAssert.assertThat(threads.size(), Matchers.lessThanOrEqualTo(2));
     }
 
     /**
@@ -33,8 +33,10 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.BucketWebsiteConfiguration;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.URI;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -42,6 +44,7 @@ import java.util.concurrent.ConcurrentMap;
 import org.apache.commons.io.IOUtils;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
+import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -90,6 +93,20 @@ public final class DefaultHostTest {
                 }
             }
         ).when(aws).getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.doAnswer(
+            new Answer<ObjectMetadata>() {
+                @Override
+                public ObjectMetadata answer(final InvocationOnMock inv) {
+                    final String key = inv.getArguments()[1].toString();
+                    if (key.matches(".*dir/?$")) {
+                        throw new com.amazonaws.AmazonClientException(
+                            String.format("%s is absent", key)
+                        );
+                    }
+                    return new ObjectMetadata();
+                }
+            }
+        ).when(aws).getObjectMetadata(Mockito.anyString(), Mockito.anyString());
         final String suffix = "index.htm";
         Mockito.doReturn(new BucketWebsiteConfiguration(suffix))
             .when(aws).getBucketWebsiteConfiguration(Mockito.anyString());
@@ -118,6 +135,108 @@ public final class DefaultHostTest {
         }
     }
 
+    /**
+     * DefaultHost can remember objects paths were found in, and paths
+     * not found at all.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void remembersResolvedObjects() throws Exception {
+        final AmazonS3 aws = Mockito.mock(AmazonS3.class);
+        Mockito.doAnswer(
+            new Answer<S3Object>() {
+                @Override
+                public S3Object answer(final InvocationOnMock invocation) {
+                    final String key = GetObjectRequest.class.cast(
+                        invocation.getArguments()[0]
+                    ).getKey();
+                    if (!"docs/index.html".equals(key)) {
+                        final AmazonServiceException ex =
+                            new AmazonServiceException("no such key");
+                        ex.setStatusCode(HttpURLConnection.HTTP_NOT_FOUND);
+                        throw ex;
+                    }
+                    final S3Object object = new S3Object();
+                    object.setObjectContent(IOUtils.toInputStream(key));
+                    return object;
+                }
+            }
+        ).when(aws).getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.doAnswer(
+            new Answer<ObjectMetadata>() {
+                @Override
+                public ObjectMetadata answer(final InvocationOnMock inv) {
+                    if (!"docs/index.html".equals(inv.getArguments()[1])) {
+                        final AmazonServiceException ex =
+                            new AmazonServiceException("not found");
+                        ex.setStatusCode(HttpURLConnection.HTTP_NOT_FOUND);
+                        throw ex;
+                    }
+                    return new ObjectMetadata();
+                }
+            }
+        ).when(aws).getObjectMetadata(Mockito.anyString(), Mockito.anyString());
+        final Host host = new DefaultHost(
+            new BucketMocker().withClient(aws).mock()
+        );
+        for (int idx = 0; idx < 2; ++idx) {
+            MatcherAssert.assertThat(
+                ResourceMocker.toString(
+                    host.fetch(URI.create("/docs/"), Range.ENTIRE)
+                ),
+                Matchers.equalTo("docs/index.html")
+            );
+        }
+        Mockito.verify(aws, Mockito.times(2))
+            .getObject(Mockito.any(GetObjectRequest.class));
+        for (int idx = 0; idx < 2; ++idx) {
+            try {
+                host.fetch(URI.create("/absent"), Range.ENTIRE);
+                Assert.fail("resource found, but it is absent");
+            } catch (final IOException ex) {
+                MatcherAssert.assertThat(
+                    ex.getMessage(),
+                    Matchers.containsString("no such key")
+                );
+            }
+        }
+        Mockito.verify(aws, Mockito.times(2 + 2))
+            .getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.verify(aws, Mockito.times(2 + 2)).getObjectMetadata(
+            Mockito.anyString(), Mockito.anyString()
+        );
+    }
+
+    /**
+     * DefaultHost can fetch a path with an extension without probing
+     * other objects.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void doesNotProbeFiles() throws Exception {
+        final AmazonS3 aws = Mockito.mock(AmazonS3.class);
+        final S3Object object = new S3Object();
+        object.setObjectContent(IOUtils.toInputStream("body"));
+        Mockito.doReturn(object).when(aws)
+            .getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.doReturn(new ObjectMetadata()).when(aws)
+            .getObjectMetadata(Mockito.anyString(), Mockito.anyString());
+        final Host host = new DefaultHost(
+            new BucketMocker().withClient(aws).mock()
+        );
+        MatcherAssert.assertThat(
+            ResourceMocker.toString(
+                host.fetch(URI.create("/css/style.css"), Range.ENTIRE)
+            ),
+            Matchers.equalTo("body")
+        );
+        Mockito.verify(aws, Mockito.times(1))
+            .getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.verify(aws, Mockito.never()).getObjectMetadata(
+            Mockito.anyString(), Mockito.anyString()
+        );
+    }
+
     /**
      * DefaultHost can show some stats in {@code #toString()}.
      * @throws Exception If there is some problem inside
@@ -156,6 +275,8 @@ public final class DefaultHostTest {
         exp.setErrorCode("NoSuchBucket");
         Mockito.doThrow(exp)
             .when(aws).getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.doThrow(exp).when(aws)
+            .getObjectMetadata(Mockito.anyString(), Mockito.anyString());
         Mockito.doReturn(new BucketWebsiteConfiguration())
             .when(aws).getBucketWebsiteConfiguration(Mockito.anyString());
         final String bucket = "nonExistent";
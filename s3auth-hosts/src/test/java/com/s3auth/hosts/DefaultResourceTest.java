@@ -30,18 +30,25 @@
 package com.s3auth.hosts;
 
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.Random;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.http.client.methods.HttpGet;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
+import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 /**
@@ -71,6 +78,138 @@ public final class DefaultResourceTest {
         );
     }
 
+    /**
+     * DefaultResource can take metadata of an unknown object from the object
+     * retrieved, and total size of a range from its {@code Content-Range},
+     * with one request to S3.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void getsTotalSizeOfRangeFromContentRange() throws Exception {
+        final AmazonS3 client = Mockito.mock(AmazonS3.class);
+        final S3Object object = new S3Object();
+        object.setObjectContent(IOUtils.toInputStream("0123456789"));
+        object.getObjectMetadata().setContentLength("0123456789".length());
+        object.getObjectMetadata().setHeader(
+            "Content-Range", "bytes 0-9/1234"
+        );
+        Mockito.doReturn(object).when(client)
+            .getObject(Mockito.any(GetObjectRequest.class));
+        final Resource res = new DefaultResource(
+            client, "g", "", new Range.Simple(0, 9)
+        );
+        MatcherAssert.assertThat(
+            res.headers(),
+            Matchers.allOf(
+                Matchers.hasItem("Content-Range: bytes 0-9/1234"),
+                Matchers.hasItem("Content-Length: 10")
+            )
+        );
+        MatcherAssert.assertThat(
+            ResourceMocker.toString(res),
+            Matchers.equalTo("0123456789")
+        );
+        Mockito.verify(client, Mockito.times(1))
+            .getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.verify(client, Mockito.never())
+            .getObjectMetadata(Mockito.anyString(), Mockito.anyString());
+    }
+
+    /**
+     * DefaultResource can be made of known metadata, without retrieving
+     * the object until its content is needed.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void buildsResourceFromKnownMetadata() throws Exception {
+        final AmazonS3 client = Mockito.mock(AmazonS3.class);
+        final S3Object object = new S3Object();
+        object.setObjectContent(IOUtils.toInputStream("known"));
+        Mockito.doReturn(object).when(client)
+            .getObject(Mockito.any(GetObjectRequest.class));
+        final ObjectMetadata meta = new ObjectMetadata();
+        meta.setHeader(Headers.ETAG, "abc");
+        meta.setContentLength("known".length());
+        meta.setLastModified(new Date());
+        final Metadata metadata = new Metadata();
+        metadata.put("k", meta);
+        final Resource res = new DefaultResource(
+            client, "h", "k", Range.ENTIRE, metadata
+        );
+        MatcherAssert.assertThat(res.etag(), Matchers.equalTo("abc"));
+        MatcherAssert.assertThat(
+            res.headers(),
+            Matchers.hasItem("Content-Length: 5")
+        );
+        Mockito.verify(client, Mockito.never())
+            .getObject(Mockito.any(GetObjectRequest.class));
+        MatcherAssert.assertThat(
+            ResourceMocker.toString(res),
+            Matchers.equalTo("known")
+        );
+        Mockito.verify(client, Mockito.times(1))
+            .getObject(Mockito.any(GetObjectRequest.class));
+    }
+
+    /**
+     * DefaultResource can revalidate metadata seen recently with S3.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void revalidatesRecentMetadataWithAmazon() throws Exception {
+        final AmazonS3 client = Mockito.mock(AmazonS3.class);
+        final ObjectMetadata meta = new ObjectMetadata();
+        meta.setHeader(Headers.ETAG, "old");
+        final Metadata metadata = new Metadata(1, 0);
+        metadata.put("r", meta);
+        final Resource res = new DefaultResource(
+            client, "i", "r", Range.ENTIRE, metadata
+        );
+        MatcherAssert.assertThat(res.etag(), Matchers.equalTo("old"));
+        final ArgumentCaptor<GetObjectRequest> request =
+            ArgumentCaptor.forClass(GetObjectRequest.class);
+        Mockito.verify(client, Mockito.times(1)).getObject(request.capture());
+        MatcherAssert.assertThat(
+            request.getValue().getNonmatchingETagConstraints(),
+            Matchers.contains("old")
+        );
+        Mockito.verify(client, Mockito.never())
+            .getObjectMetadata(Mockito.anyString(), Mockito.anyString());
+    }
+
+    /**
+     * DefaultResource can use the object modified since its metadata
+     * were seen.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void keepsObjectModifiedSinceSeen() throws Exception {
+        final AmazonS3 client = Mockito.mock(AmazonS3.class);
+        final S3Object object = new S3Object();
+        object.setObjectContent(IOUtils.toInputStream("new"));
+        object.getObjectMetadata().setHeader(Headers.ETAG, "new");
+        Mockito.doReturn(object).when(client)
+            .getObject(Mockito.any(GetObjectRequest.class));
+        final ObjectMetadata meta = new ObjectMetadata();
+        meta.setHeader(Headers.ETAG, "old");
+        final Metadata metadata = new Metadata(1, 0);
+        metadata.put("m", meta);
+        final Resource res = new DefaultResource(
+            client, "j", "m", Range.ENTIRE, metadata
+        );
+        MatcherAssert.assertThat(res.etag(), Matchers.equalTo("new"));
+        MatcherAssert.assertThat(
+            ResourceMocker.toString(res),
+            Matchers.equalTo("new")
+        );
+        MatcherAssert.assertThat(
+            metadata.recent("m").getETag(),
+            Matchers.equalTo("new")
+        );
+        Mockito.verify(client, Mockito.times(1))
+            .getObject(Mockito.any(GetObjectRequest.class));
+    }
+
     /**
      * DefaultResource can write to output stream.
      * @throws Exception If there is some problem inside
@@ -81,6 +220,8 @@ public final class DefaultResourceTest {
         final S3Object object = Mockito.mock(S3Object.class);
         Mockito.doReturn(object).when(client)
             .getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.doReturn(new ObjectMetadata()).when(object)
+            .getObjectMetadata();
         final S3ObjectInputStream stream =
             Mockito.mock(S3ObjectInputStream.class);
         Mockito.doReturn(-1).when(stream).read(Mockito.any(byte[].class));
@@ -113,6 +254,8 @@ public final class DefaultResourceTest {
         final S3Object object = Mockito.mock(S3Object.class);
         Mockito.doReturn(object).when(client)
             .getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.doReturn(new ObjectMetadata()).when(object)
+            .getObjectMetadata();
         Mockito.doReturn(stream).when(object).getObjectContent();
         MatcherAssert.assertThat(
             ResourceMocker.toByteArray(
@@ -122,6 +265,48 @@ public final class DefaultResourceTest {
         );
     }
 
+    /**
+     * DefaultResource can count bytes of objects larger than 2Gb.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void countsBytesOfHugeObjects() throws Exception {
+        final long size = Integer.MAX_VALUE + 1L;
+        final S3ObjectInputStream stream = new S3ObjectInputStream(
+            new InputStream() {
+                private transient long left = size;
+                @Override
+                public int read() {
+                    throw new UnsupportedOperationException();
+                }
+                @Override
+                public int read(final byte[] buf, final int off,
+                    final int len) {
+                    int count = -1;
+                    if (this.left > 0L) {
+                        count = (int) Math.min(len, this.left);
+                        this.left -= count;
+                    }
+                    return count;
+                }
+            },
+            new HttpGet()
+        );
+        final AmazonS3 client = Mockito.mock(AmazonS3.class);
+        final S3Object object = Mockito.mock(S3Object.class);
+        Mockito.doReturn(object).when(client)
+            .getObject(Mockito.any(GetObjectRequest.class));
+        final ObjectMetadata meta = new ObjectMetadata();
+        meta.setContentLength(size);
+        Mockito.doReturn(meta).when(object).getObjectMetadata();
+        Mockito.doReturn(stream).when(object).getObjectContent();
+        MatcherAssert.assertThat(
+            new DefaultResource(client, "n", "", Range.ENTIRE)
+                .writeTo(new NullOutputStream()),
+            Matchers.equalTo(size)
+        );
+    }
+
     /**
      * DefaultResource can throw when failed to read.
      * @throws Exception If there is some problem inside
@@ -136,6 +321,8 @@ public final class DefaultResourceTest {
         final S3Object object = Mockito.mock(S3Object.class);
         Mockito.doReturn(object).when(client)
             .getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.doReturn(new ObjectMetadata()).when(object)
+            .getObjectMetadata();
         Mockito.doReturn(stream).when(object).getObjectContent();
         MatcherAssert.assertThat(
             ResourceMocker.toString(
@@ -145,6 +332,78 @@ public final class DefaultResourceTest {
         );
     }
 
+    /**
+     * DefaultResource can abort S3 stream when the client is gone.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void abortsStreamWhenFailedToWrite() throws Exception {
+        final S3ObjectInputStream stream =
+            Mockito.mock(S3ObjectInputStream.class);
+        Mockito.doReturn(1).when(stream).read(Mockito.any(byte[].class));
+        final AmazonS3 client = Mockito.mock(AmazonS3.class);
+        final ObjectMetadata meta = new ObjectMetadata();
+        // @checkstyle MagicNumber (1 line)
+        meta.setContentLength(100L);
+        final S3Object object = Mockito.mock(S3Object.class);
+        Mockito.doReturn(object).when(client)
+            .getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.doReturn(meta).when(object).getObjectMetadata();
+        Mockito.doReturn(stream).when(object).getObjectContent();
+        final OutputStream output = Mockito.mock(OutputStream.class);
+        Mockito.doThrow(new IOException("client is gone")).when(output)
+            .write(Mockito.any(byte[].class), Mockito.anyInt(),
+                Mockito.anyInt());
+        final long before = DefaultResource.aborted();
+        try {
+            new DefaultResource(client, "k", "", Range.ENTIRE)
+                .writeTo(output);
+            Assert.fail("written to a broken stream");
+        } catch (final IOException ex) {
+            MatcherAssert.assertThat(
+                ex.getMessage(),
+                Matchers.containsString("client is gone")
+            );
+        }
+        Mockito.verify(stream).abort();
+        Mockito.verify(stream, Mockito.never()).close();
+        MatcherAssert.assertThat(
+            DefaultResource.aborted() - before,
+            Matchers.greaterThanOrEqualTo(100L)
+        );
+    }
+
+    /**
+     * DefaultResource can abort S3 stream, when its content is closed
+     * before its end, and close it, when the end is reached.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void abortsContentClosedBeforeItsEnd() throws Exception {
+        final S3ObjectInputStream stream =
+            Mockito.mock(S3ObjectInputStream.class);
+        Mockito.doReturn(1).doReturn(-1).when(stream)
+            .read(Mockito.any(byte[].class));
+        final AmazonS3 client = Mockito.mock(AmazonS3.class);
+        final S3Object object = Mockito.mock(S3Object.class);
+        Mockito.doReturn(object).when(client)
+            .getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.doReturn(new ObjectMetadata()).when(object)
+            .getObjectMetadata();
+        Mockito.doReturn(stream).when(object).getObjectContent();
+        final InputStream first =
+            new DefaultResource(client, "o", "", Range.ENTIRE).content();
+        first.read(new byte[2]);
+        first.close();
+        Mockito.verify(stream).abort();
+        Mockito.verify(stream, Mockito.never()).close();
+        final InputStream second =
+            new DefaultResource(client, "o", "", Range.ENTIRE).content();
+        second.read(new byte[2]);
+        second.close();
+        Mockito.verify(stream).close();
+    }
+
     /**
      * DefaultResource can obtain its last modified date.
      * @throws Exception If there is some problem inside
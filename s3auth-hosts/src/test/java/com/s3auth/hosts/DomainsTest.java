@@ -59,4 +59,22 @@ public final class DomainsTest {
         );
     }
 
+    /**
+     * Domains can find domains by names in any case.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void findsDomainsIgnoringCase() throws Exception {
+        final Domains domains = new Domains();
+        domains.add(new DomainMocker().withName("S3auth.com").mock());
+        MatcherAssert.assertThat(
+            domains.get("s3AUTH.com").name(),
+            Matchers.equalTo("S3auth.com")
+        );
+        MatcherAssert.assertThat(
+            domains.add(new DomainMocker().withName("s3auth.COM").mock()),
+            Matchers.is(false)
+        );
+    }
+
 }
@@ -29,11 +29,29 @@
  */
 package com.s3auth.hosts;
 
+import com.jcabi.urn.URN;
+import com.jcabi.urn.URNMocker;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.hamcrest.CustomMatcher;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 /**
  * Test case for {@link DynamoHosts}.
@@ -153,6 +171,139 @@ public final class DynamoHostsTest {
         hosts.close();
     }
 
+    /**
+     * DynamoHosts can find hosts by names in any case.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void findsHostsIgnoringCase() throws Exception {
+        final Hosts hosts = new DynamoHosts(new DynamoMocker().mock());
+        final User user = new UserMocker()
+            .withIdentity("urn:facebook:9091")
+            .mock();
+        hosts.domains(user).add(
+            new DomainMocker().withName("Example.COM").mock()
+        );
+        MatcherAssert.assertThat(
+            hosts.find("example.com"),
+            Matchers.notNullValue()
+        );
+        MatcherAssert.assertThat(
+            hosts.domains(
+                new UserMocker().withIdentity("urn:facebook:9092").mock()
+            ).add(new DomainMocker().withName("EXAMPLE.com").mock()),
+            Matchers.is(false)
+        );
+        hosts.close();
+    }
+
+    /**
+     * DynamoHosts can remember unknown hosts, throwing a new exception
+     * for every request.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void remembersUnknownHosts() throws Exception {
+        final Domains domains = new Domains();
+        domains.add(new DomainMocker().withName("known.com").mock());
+        final ConcurrentMap<URN, Domains> data =
+            new ConcurrentHashMap<URN, Domains>(0);
+        data.put(new URNMocker().mock(), domains);
+        final Dynamo dynamo = Mockito.mock(Dynamo.class);
+        Mockito.doReturn(data).when(dynamo).load();
+        final Hosts hosts = new DynamoHosts(dynamo);
+        MatcherAssert.assertThat(
+            hosts.find("KNOWN.com"),
+            Matchers.notNullValue()
+        );
+        final Collection<Hosts.NotFoundException> errors =
+            new LinkedList<Hosts.NotFoundException>();
+        for (int idx = 0; idx < 2; ++idx) {
+            try {
+                hosts.find("unknown.com");
+                Assert.fail("host found, but not registered");
+            } catch (final Hosts.NotFoundException ex) {
+                errors.add(ex);
+            }
+        }
+        MatcherAssert.assertThat(
+            errors.iterator().next(),
+            Matchers.not(Matchers.sameInstance(errors.toArray()[1]))
+        );
+        MatcherAssert.assertThat(
+            errors.iterator().next().getMessage(),
+            Matchers.sameInstance(
+                Hosts.NotFoundException.class.cast(errors.toArray()[1])
+                    .getMessage()
+            )
+        );
+        hosts.close();
+    }
+
+    /**
+     * DynamoHosts can keep hosts of domains added while an older snapshot
+     * is being loaded.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void keepsHostsOfDomainsAddedMeanwhile() throws Exception {
+        final Domains domains = new Domains();
+        domains.add(new DomainMocker().withName("added.com").mock());
+        final ConcurrentMap<URN, Domains> data =
+            new ConcurrentHashMap<URN, Domains>(0);
+        data.put(new URNMocker().mock(), domains);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final AtomicBoolean first = new AtomicBoolean(true);
+        final Dynamo dynamo = Mockito.mock(Dynamo.class);
+        Mockito.doAnswer(
+            new Answer<Map<URN, Domains>>() {
+                @Override
+                public Map<URN, Domains> answer(final InvocationOnMock inv)
+                    throws InterruptedException {
+                    Map<URN, Domains> snapshot = data;
+                    if (first.compareAndSet(true, false)) {
+                        loading.countDown();
+                        loaded.await();
+                        snapshot = new ConcurrentHashMap<URN, Domains>(0);
+                    }
+                    return snapshot;
+                }
+            }
+        ).when(dynamo).load();
+        final Hosts hosts = new DynamoHosts(dynamo);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Host> slow = executor.submit(
+                new Callable<Host>() {
+                    @Override
+                    public Host call() throws IOException {
+                        return hosts.find("absent.com");
+                    }
+                }
+            );
+            loading.await();
+            final Host host = hosts.find("added.com");
+            loaded.countDown();
+            try {
+                slow.get();
+                Assert.fail("host found in an empty snapshot");
+            } catch (final ExecutionException ex) {
+                MatcherAssert.assertThat(
+                    ex.getCause(),
+                    Matchers.instanceOf(Hosts.NotFoundException.class)
+                );
+            }
+            MatcherAssert.assertThat(
+                hosts.find("added.com"),
+                Matchers.sameInstance(host)
+            );
+        } finally {
+            executor.shutdownNow();
+            hosts.close();
+        }
+    }
+
     /**
      * DynamoHosts can reject invalid user names.
      * @throws Exception If there is some problem inside
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import org.apache.commons.io.IOUtils;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test case for {@link HotObjects}.
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ */
+public final class HotObjectsTest {
+
+    /**
+     * HotObjects can serve an object from memory, once it's written.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void servesObjectFromMemory() throws Exception {
+        final HotObjects hot = new HotObjects();
+        final Resource origin = HotObjectsTest.resource("a", "alpha");
+        for (int idx = 0; idx < 2 + 1; ++idx) {
+            MatcherAssert.assertThat(
+                ResourceMocker.toString(
+                    hot.resource("b", "k", Range.ENTIRE, origin)
+                ),
+                Matchers.equalTo("alpha")
+            );
+        }
+        Mockito.verify(origin, Mockito.times(1))
+            .writeTo(Mockito.any(OutputStream.class));
+    }
+
+    /**
+     * HotObjects can serve an object from memory, once it's read entirely.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void servesObjectReadFromMemory() throws Exception {
+        final HotObjects hot = new HotObjects();
+        final Resource origin = HotObjectsTest.resource("r", "read me");
+        for (int idx = 0; idx < 2 + 1; ++idx) {
+            final InputStream input =
+                hot.resource("b", "r", Range.ENTIRE, origin).content();
+            try {
+                MatcherAssert.assertThat(
+                    IOUtils.toString(input),
+                    Matchers.equalTo("read me")
+                );
+            } finally {
+                input.close();
+            }
+        }
+        Mockito.verify(origin, Mockito.times(1)).content();
+    }
+
+    /**
+     * HotObjects can ignore objects that must not be kept.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void honoursCacheControl() throws Exception {
+        final HotObjects hot = new HotObjects();
+        final Resource origin = HotObjectsTest.resource(
+            "c", "secret", "Cache-Control: private, max-age=600"
+        );
+        for (int idx = 0; idx < 2; ++idx) {
+            hot.resource("b", "p", Range.ENTIRE, origin)
+                .writeTo(Mockito.mock(OutputStream.class));
+        }
+        Mockito.verify(origin, Mockito.times(2))
+            .writeTo(Mockito.any(OutputStream.class));
+    }
+
+    /**
+     * HotObjects can keep a popular object, when an object requested once
+     * doesn't fit.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void keepsPopularObjects() throws Exception {
+        // @checkstyle MagicNumber (1 line)
+        final HotObjects hot = new HotObjects(200L, 100);
+        final Resource popular = HotObjectsTest.resource(
+            "p", new String(new char[60]).replace('\0', 'p')
+        );
+        final Resource scanned = HotObjectsTest.resource(
+            "s", new String(new char[60]).replace('\0', 's')
+        );
+        for (int idx = 0; idx < 2 + 1; ++idx) {
+            ResourceMocker.toString(
+                hot.resource("b", "popular", Range.ENTIRE, popular)
+            );
+        }
+        for (int idx = 0; idx < 2 + 1; ++idx) {
+            ResourceMocker.toString(
+                hot.resource(
+                    "b", String.format("scanned-%d", idx),
+                    Range.ENTIRE, scanned
+                )
+            );
+        }
+        ResourceMocker.toString(
+            hot.resource("b", "popular", Range.ENTIRE, popular)
+        );
+        Mockito.verify(popular, Mockito.times(1))
+            .writeTo(Mockito.any(OutputStream.class));
+        Mockito.verify(scanned, Mockito.times(2 + 1))
+            .writeTo(Mockito.any(OutputStream.class));
+    }
+
+    /**
+     * HotObjects can keep the largest object in the window, even when it
+     * is not admitted to the main area yet.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void keepsLargestObjectInWindow() throws Exception {
+        // @checkstyle MagicNumber (1 line)
+        final HotObjects hot = new HotObjects(200L, 100);
+        for (final String key : Arrays.asList("first", "second")) {
+            final Resource origin = HotObjectsTest.resource(
+                key, new String(new char[90]).replace('\0', 'x')
+            );
+            for (int idx = 0; idx < 2 + 1; ++idx) {
+                ResourceMocker.toString(
+                    hot.resource("b", key, Range.ENTIRE, origin)
+                );
+            }
+        }
+        final Resource largest = HotObjectsTest.resource(
+            "l", new String(new char[100]).replace('\0', 'l')
+        );
+        for (int idx = 0; idx < 2; ++idx) {
+            ResourceMocker.toString(
+                hot.resource("b", "largest", Range.ENTIRE, largest)
+            );
+        }
+        Mockito.verify(largest, Mockito.times(1))
+            .writeTo(Mockito.any(OutputStream.class));
+    }
+
+    /**
+     * Make a resource.
+     * @param etag ETag of it
+     * @param content Content of it
+     * @param headers HTTP headers of it
+     * @return The resource
+     * @throws Exception If there is some problem inside
+     */
+    private static Resource resource(final String etag, final String content,
+        final String... headers) throws Exception {
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.doReturn(etag).when(resource).etag();
+        Mockito.doReturn(Arrays.asList(headers)).when(resource).headers();
+        Mockito.doAnswer(
+            new Answer<Long>() {
+                @Override
+                public Long answer(final InvocationOnMock invocation)
+                    throws Exception {
+                    OutputStream.class.cast(invocation.getArguments()[0])
+                        .write(content.getBytes());
+                    return (long) content.length();
+                }
+            }
+        ).when(resource).writeTo(Mockito.any(OutputStream.class));
+        Mockito.doAnswer(
+            new Answer<InputStream>() {
+                @Override
+                public InputStream answer(final InvocationOnMock invocation) {
+                    return new ByteArrayInputStream(content.getBytes());
+                }
+            }
+        ).when(resource).content();
+        return resource;
+    }
+
+}
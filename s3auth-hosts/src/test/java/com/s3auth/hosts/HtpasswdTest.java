@@ -66,6 +66,8 @@ public final class HtpasswdTest {
         final AmazonS3 aws = Mockito.mock(AmazonS3.class);
         Mockito.doThrow(new AmazonClientException("")).when(aws)
             .getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.doThrow(new AmazonClientException("")).when(aws)
+            .getObjectMetadata(Mockito.anyString(), Mockito.anyString());
         MatcherAssert.assertThat(
             new Htpasswd(
                 new DefaultHost(
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import com.google.common.collect.ImmutableMap;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Registry}.
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ */
+public final class RegistryTest {
+
+    /**
+     * Registry can keep one host per domain.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void keepsOneHostPerDomain() throws Exception {
+        final Registry registry = new Registry();
+        final Host host = registry.get(
+            new DomainMocker().withName("one.com").mock()
+        );
+        MatcherAssert.assertThat(
+            registry.get(new DomainMocker().withName("ONE.com").mock()),
+            Matchers.sameInstance(host)
+        );
+        MatcherAssert.assertThat(
+            registry.get(
+                new DomainMocker().withName("one.com").withKey("AAAA").mock()
+            ),
+            Matchers.not(Matchers.sameInstance(host))
+        );
+        registry.close();
+    }
+
+    /**
+     * Registry can evict hosts of domains not registered any more.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void evictsHostsOfRemovedDomains() throws Exception {
+        final Registry registry = new Registry();
+        final Domain first = new DomainMocker().withName("first.com").mock();
+        final Domain second = new DomainMocker().withName("second.com").mock();
+        final Host host = registry.get(first);
+        final Host kept = registry.get(second);
+        registry.retain(ImmutableMap.of("second.com", second));
+        MatcherAssert.assertThat(
+            registry.get(second),
+            Matchers.sameInstance(kept)
+        );
+        MatcherAssert.assertThat(
+            registry.get(first),
+            Matchers.not(Matchers.sameInstance(host))
+        );
+        registry.close();
+    }
+
+}
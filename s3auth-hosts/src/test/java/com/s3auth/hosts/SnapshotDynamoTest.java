@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import com.jcabi.urn.URN;
+import com.jcabi.urn.URNMocker;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test case for {@link SnapshotDynamo}.
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ */
+public final class SnapshotDynamoTest {
+
+    /**
+     * SnapshotDynamo can serve a snapshot without reloading it.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void servesSnapshotWithoutReloading() throws Exception {
+        final Dynamo origin = Mockito.mock(Dynamo.class);
+        final Map<URN, Domains> data =
+            new ConcurrentHashMap<URN, Domains>(0);
+        Mockito.doReturn(data).when(origin).load();
+        final SnapshotDynamo dynamo = new SnapshotDynamo(origin);
+        MatcherAssert.assertThat(dynamo.load(), Matchers.sameInstance(data));
+        MatcherAssert.assertThat(dynamo.load(), Matchers.sameInstance(data));
+        Mockito.verify(origin, Mockito.times(1)).load();
+        dynamo.add(new URNMocker().mock(), new DomainMocker().mock());
+        Mockito.verify(origin, Mockito.times(2)).load();
+        dynamo.close();
+        Mockito.verify(origin).close();
+    }
+
+    /**
+     * SnapshotDynamo can keep serving a stale snapshot when origin fails.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void keepsStaleSnapshotOnFailure() throws Exception {
+        final Dynamo origin = Mockito.mock(Dynamo.class);
+        final Map<URN, Domains> data =
+            new ConcurrentHashMap<URN, Domains>(0);
+        Mockito.when(origin.load())
+            .thenReturn(data)
+            .thenThrow(new IOException("dynamo is down"));
+        final SnapshotDynamo dynamo = new SnapshotDynamo(origin, 1L);
+        MatcherAssert.assertThat(dynamo.load(), Matchers.sameInstance(data));
+        TimeUnit.SECONDS.sleep(2L);
+        Mockito.verify(origin, Mockito.atLeast(2)).load();
+        MatcherAssert.assertThat(dynamo.load(), Matchers.sameInstance(data));
+        MatcherAssert.assertThat(
+            dynamo.staleness(),
+            Matchers.greaterThanOrEqualTo(TimeUnit.SECONDS.toMillis(1L))
+        );
+        dynamo.close();
+    }
+
+    /**
+     * SnapshotDynamo can report a change as made, when only the refresh
+     * after it fails.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void keepsChangeWhenRefreshFails() throws Exception {
+        final Dynamo origin = Mockito.mock(Dynamo.class);
+        final Map<URN, Domains> data =
+            new ConcurrentHashMap<URN, Domains>(0);
+        Mockito.when(origin.load())
+            .thenReturn(data)
+            .thenThrow(new IOException("dynamo is slow"));
+        Mockito.doReturn(true).when(origin)
+            .add(Mockito.any(URN.class), Mockito.any(Domain.class));
+        final SnapshotDynamo dynamo = new SnapshotDynamo(origin);
+        MatcherAssert.assertThat(dynamo.load(), Matchers.sameInstance(data));
+        MatcherAssert.assertThat(
+            dynamo.add(new URNMocker().mock(), new DomainMocker().mock()),
+            Matchers.is(true)
+        );
+        MatcherAssert.assertThat(dynamo.load(), Matchers.sameInstance(data));
+        MatcherAssert.assertThat(
+            dynamo.toString(), Matchers.containsString("ms old")
+        );
+        dynamo.close();
+    }
+
+    /**
+     * SnapshotDynamo can ignore a snapshot loaded by a refresh, which
+     * started before the current snapshot was loaded.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void ignoresOutdatedSnapshots() throws Exception {
+        final Dynamo origin = Mockito.mock(Dynamo.class);
+        final Map<URN, Domains> outdated =
+            new ConcurrentHashMap<URN, Domains>(0);
+        final Map<URN, Domains> fresh =
+            new ConcurrentHashMap<URN, Domains>(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        Mockito.doAnswer(
+            new Answer<Map<URN, Domains>>() {
+                @Override
+                public Map<URN, Domains> answer(final InvocationOnMock inv)
+                    throws Exception {
+                    final Map<URN, Domains> map;
+                    if (calls.incrementAndGet() == 1) {
+                        started.countDown();
+                        loaded.await();
+                        map = outdated;
+                    } else {
+                        map = fresh;
+                    }
+                    return map;
+                }
+            }
+        ).when(origin).load();
+        final SnapshotDynamo dynamo = new SnapshotDynamo(origin);
+        final Thread slow = new Thread(
+            new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        dynamo.remove(new DomainMocker().mock());
+                    } catch (final IOException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            }
+        );
+        slow.start();
+        started.await();
+        dynamo.remove(new DomainMocker().mock());
+        loaded.countDown();
+        slow.join();
+        MatcherAssert.assertThat(dynamo.load(), Matchers.sameInstance(fresh));
+        dynamo.close();
+    }
+
+}
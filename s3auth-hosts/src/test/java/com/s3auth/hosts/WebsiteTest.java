@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.hosts;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.BucketWebsiteConfiguration;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test case for {@link Website}.
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ */
+public final class WebsiteTest {
+
+    /**
+     * Website can load index document suffix once.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void loadsSuffixOnce() throws Exception {
+        final AmazonS3 aws = Mockito.mock(AmazonS3.class);
+        Mockito.doReturn(new BucketWebsiteConfiguration("main.html"))
+            .when(aws).getBucketWebsiteConfiguration("site");
+        final Website website = new Website(
+            new BucketMocker().withBucket("site").withClient(aws).mock()
+        );
+        MatcherAssert.assertThat(website.suffix(), Matchers.is("main.html"));
+        MatcherAssert.assertThat(website.suffix(), Matchers.is("main.html"));
+        Mockito.verify(aws, Mockito.times(1))
+            .getBucketWebsiteConfiguration(Mockito.anyString());
+    }
+
+    /**
+     * Website can remember buckets without website configuration.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void remembersBucketsWithoutConfiguration() throws Exception {
+        final AmazonS3 aws = Mockito.mock(AmazonS3.class);
+        final Website website = new Website(
+            new BucketMocker().withClient(aws).mock()
+        );
+        MatcherAssert.assertThat(website.suffix(), Matchers.isEmptyString());
+        MatcherAssert.assertThat(website.suffix(), Matchers.isEmptyString());
+        Mockito.verify(aws, Mockito.times(1))
+            .getBucketWebsiteConfiguration(Mockito.anyString());
+    }
+
+}
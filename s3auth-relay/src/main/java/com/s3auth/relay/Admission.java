@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.relay;
+
+import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * Adaptive limit of requests served concurrently.
+ *
+ * <p>The limit starts at its maximum and follows the latency of requests,
+ * reported by {@link HttpThread} through {@link #sample(long)}. Latency
+ * is averaged over a window of {@link #WINDOW} requests. When the average
+ * grows above {@link #TOLERANCE} times the best average we've seen so far,
+ * the backend is overloaded (S3 is slow, or we are short of CPU), and the
+ * limit goes down by a tenth. Otherwise it goes up by a square root of
+ * itself, until it reaches the maximum again. The best average slowly
+ * drifts up, so that the limit adapts to a backend which became slower
+ * for good.
+ *
+ * <p>The class is mutable and thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ * @see HttpFacade
+ */
+@ToString(of = { "limit", "busy", "max" })
+@EqualsAndHashCode(of = { "limit", "busy", "max" })
+@Loggable(Loggable.DEBUG)
+final class Admission {
+
+    /**
+     * Lowest possible limit.
+     */
+    public static final int MIN = Tv.TEN;
+
+    /**
+     * Number of latency samples averaged before the limit is changed.
+     */
+    public static final int WINDOW = Tv.HUNDRED;
+
+    /**
+     * How many times the average latency may exceed the best one.
+     */
+    public static final int TOLERANCE = 2;
+
+    /**
+     * Highest possible limit.
+     */
+    private final transient int max;
+
+    /**
+     * Lowest possible limit, never above the highest one.
+     */
+    private final transient int min;
+
+    /**
+     * Requests being served now.
+     */
+    private final transient AtomicInteger busy = new AtomicInteger();
+
+    /**
+     * Current limit.
+     */
+    private transient volatile int limit;
+
+    /**
+     * Total latency in the current window, in nanoseconds.
+     */
+    private transient long total;
+
+    /**
+     * Number of samples in the current window.
+     */
+    private transient int count;
+
+    /**
+     * Best average latency, in nanoseconds.
+     */
+    private transient long best = Long.MAX_VALUE;
+
+    /**
+     * Public ctor.
+     * @param highest Highest possible limit
+     */
+    Admission(final int highest) {
+        this.max = highest;
+        this.min = Math.min(Admission.MIN, highest);
+        this.limit = highest;
+    }
+
+    /**
+     * Take a permit to serve one more request, if the limit allows.
+     * @return TRUE if taken, and {@link #release()} must be called later
+     */
+    public boolean acquire() {
+        boolean acquired = false;
+        while (true) {
+            final int now = this.busy.get();
+            if (now >= this.limit) {
+                break;
+            }
+            if (this.busy.compareAndSet(now, now + 1)) {
+                acquired = true;
+                break;
+            }
+        }
+        return acquired;
+    }
+
+    /**
+     * Return the permit taken by {@link #acquire()}.
+     */
+    public void release() {
+        this.busy.decrementAndGet();
+    }
+
+    /**
+     * Report latency of one request.
+     * @param nanos How long it took to prepare the response, in nanoseconds
+     */
+    public void sample(final long nanos) {
+        synchronized (this.busy) {
+            this.total += nanos;
+            ++this.count;
+            if (this.count >= Admission.WINDOW) {
+                this.adjust(this.total / this.count);
+                this.total = 0L;
+                this.count = 0;
+            }
+        }
+    }
+
+    /**
+     * Current limit.
+     * @return The limit
+     */
+    public int limit() {
+        return this.limit;
+    }
+
+    /**
+     * Highest possible limit.
+     * @return The limit
+     */
+    public int max() {
+        return this.max;
+    }
+
+    /**
+     * Adjust the limit to the average latency of the last window.
+     * @param average Average latency, in nanoseconds
+     */
+    private void adjust(final long average) {
+        if (average < this.best) {
+            this.best = average;
+        } else {
+            this.best += (average - this.best) / Tv.HUNDRED;
+        }
+        if (average > this.best * Admission.TOLERANCE) {
+            this.limit = Math.max(this.min, this.limit - this.limit / Tv.TEN);
+        } else {
+            this.limit = Math.min(
+                this.max,
+                this.limit + Math.max(1, (int) Math.sqrt(this.limit))
+            );
+        }
+    }
+
+}
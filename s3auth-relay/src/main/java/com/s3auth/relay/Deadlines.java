@@ -0,0 +1,432 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.relay;
+
+import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
+import com.jcabi.log.Logger;
+import com.jcabi.log.VerboseRunnable;
+import com.jcabi.log.VerboseThreads;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * Deadlines of connections, on a hashed wheel timer.
+ *
+ * <p>Every connection has one {@link Deadlines.Deadline}, which is armed
+ * when we start waiting for the client: while it sends a request head
+ * ({@link Deadlines.Kind#HEAD}), while we write a response body to it
+ * ({@link Deadlines.Kind#BODY}, armed again before every write), and
+ * while the connection stays idle between requests
+ * ({@link Deadlines.Kind#IDLE}). When a deadline expires, the socket
+ * is closed, and a blocked read or write fails at once.
+ *
+ * <p>Deadlines live in a wheel of {@link #SLOTS} slots, one thread moves
+ * through them every {@link #TICK} milliseconds. Arming a deadline
+ * which is already in the wheel only changes its expiry time, without
+ * locks and allocations. When the thread finds a deadline in a slot, it
+ * closes the socket if the deadline is expired, moves it to a later slot
+ * if it was armed again, or drops it if it is not armed any more.
+ *
+ * <p>The class is mutable and thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ * @see HttpThread
+ */
+@ToString(of = "expired")
+@EqualsAndHashCode(of = "durations")
+@SuppressWarnings("PMD.DoNotUseThreads")
+@Loggable(Loggable.DEBUG)
+final class Deadlines implements Closeable {
+
+    /**
+     * Default time to receive a request head, in seconds.
+     */
+    public static final int HEAD = Tv.TEN;
+
+    /**
+     * Default time to write one chunk of a response, in seconds.
+     */
+    public static final int BODY = Tv.THIRTY;
+
+    /**
+     * Number of slots in the wheel.
+     */
+    private static final int SLOTS = 512;
+
+    /**
+     * Duration of one tick of the wheel, in milliseconds.
+     */
+    private static final long TICK = 100L;
+
+    /**
+     * Kinds of deadlines.
+     */
+    public enum Kind {
+        /**
+         * Receiving a request.
+         */
+        HEAD,
+        /**
+         * Writing a response.
+         */
+        BODY,
+        /**
+         * Waiting for the next request.
+         */
+        IDLE;
+    }
+
+    /**
+     * Durations of deadlines, in ticks, by kind.
+     */
+    private final transient long[] durations;
+
+    /**
+     * Slots of the wheel.
+     */
+    private final transient List<Queue<Deadlines.Deadline>> slots;
+
+    /**
+     * Number of expired deadlines, by kind.
+     */
+    private final transient AtomicLongArray expired =
+        new AtomicLongArray(Deadlines.Kind.values().length);
+
+    /**
+     * When the wheel was started, in nanoseconds.
+     */
+    private final transient long origin = System.nanoTime();
+
+    /**
+     * The last tick processed.
+     */
+    private transient volatile long cursor;
+
+    /**
+     * Thread moving the wheel.
+     */
+    private final transient ScheduledExecutorService ticker =
+        Executors.newSingleThreadScheduledExecutor(
+            new VerboseThreads("deadlines")
+        );
+
+    /**
+     * Public ctor.
+     * @param idle Time a connection may stay idle, in milliseconds
+     */
+    Deadlines(final long idle) {
+        this(TimeUnit.SECONDS.toMillis(Deadlines.HEAD),
+            TimeUnit.SECONDS.toMillis(Deadlines.BODY), idle);
+    }
+
+    /**
+     * Public ctor.
+     * @param head Time to receive a request, in milliseconds
+     * @param body Time to write one chunk of a response, in milliseconds
+     * @param idle Time a connection may stay idle, in milliseconds
+     */
+    Deadlines(final long head, final long body, final long idle) {
+        this.durations = new long[] {
+            Deadlines.ticks(head), Deadlines.ticks(body), Deadlines.ticks(idle),
+        };
+        this.slots = new ArrayList<Queue<Deadlines.Deadline>>(
+            Deadlines.SLOTS
+        );
+        for (int idx = 0; idx < Deadlines.SLOTS; ++idx) {
+            this.slots.add(new ConcurrentLinkedQueue<Deadlines.Deadline>());
+        }
+        this.ticker.scheduleAtFixedRate(
+            new VerboseRunnable(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        Deadlines.this.turn();
+                    }
+                },
+                true, false
+            ),
+            Deadlines.TICK, Deadlines.TICK, TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Make a deadline for the connection.
+     * @param socket The socket to close when the deadline expires
+     * @return The deadline, not armed yet
+     */
+    public Deadlines.Deadline watch(final Socket socket) {
+        return new Deadlines.Deadline(this, socket);
+    }
+
+    /**
+     * How many deadlines of this kind expired so far.
+     * @param kind Kind of deadlines
+     * @return Number of closed connections
+     */
+    public long expired(final Deadlines.Kind kind) {
+        return this.expired.get(kind.ordinal());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            HttpFacade.shutdown(this.ticker);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        Logger.info(this, "#close(): expired deadlines: %s", this.expired);
+    }
+
+    /**
+     * Current tick.
+     * @return Ticks since the start of the wheel
+     */
+    private long now() {
+        return Deadlines.ticks(
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.origin)
+        );
+    }
+
+    /**
+     * Process all slots up to the current tick.
+     */
+    private void turn() {
+        final long now = this.now();
+        for (long tick = this.cursor + 1; tick <= now; ++tick) {
+            final Queue<Deadlines.Deadline> slot = this.slot(tick);
+            final List<Deadlines.Deadline> found =
+                new LinkedList<Deadlines.Deadline>();
+            while (true) {
+                final Deadlines.Deadline deadline = slot.poll();
+                if (deadline == null) {
+                    break;
+                }
+                found.add(deadline);
+            }
+            this.cursor = tick;
+            for (final Deadlines.Deadline deadline : found) {
+                deadline.check(tick);
+            }
+        }
+    }
+
+    /**
+     * Put the deadline into the slot of its expiry tick.
+     * @param deadline The deadline
+     * @param expiry Tick when it expires
+     */
+    private void put(final Deadlines.Deadline deadline, final long expiry) {
+        this.slot(Math.max(expiry, this.cursor + 1)).add(deadline);
+    }
+
+    /**
+     * Get the slot of this tick.
+     * @param tick The tick
+     * @return The slot
+     */
+    private Queue<Deadlines.Deadline> slot(final long tick) {
+        return this.slots.get((int) (tick % Deadlines.SLOTS));
+    }
+
+    /**
+     * Convert milliseconds to ticks, rounding up.
+     * @param millis Milliseconds
+     * @return Ticks
+     */
+    private static long ticks(final long millis) {
+        return (millis + Deadlines.TICK - 1) / Deadlines.TICK;
+    }
+
+    /**
+     * Deadline of one connection.
+     */
+    @ToString(of = "socket")
+    @EqualsAndHashCode(of = "socket")
+    static final class Deadline {
+        /**
+         * Deadline that never expires and is never put into a wheel.
+         */
+        public static final Deadlines.Deadline NONE =
+            new Deadlines.Deadline(null, null);
+        /**
+         * The wheel, or NULL.
+         */
+        private final transient Deadlines wheel;
+        /**
+         * The socket to close.
+         */
+        private final transient Socket socket;
+        /**
+         * Is it in the wheel now?
+         */
+        private final transient AtomicBoolean queued = new AtomicBoolean();
+        /**
+         * Tick when it expires, or zero if it is not armed.
+         */
+        private transient volatile long expiry;
+        /**
+         * Kind of the armed deadline.
+         */
+        private transient volatile Deadlines.Kind kind;
+        /**
+         * Did it expire?
+         */
+        private transient volatile boolean over;
+        /**
+         * Public ctor.
+         * @param whl The wheel
+         * @param sock The socket
+         */
+        Deadline(final Deadlines whl, final Socket sock) {
+            this.wheel = whl;
+            this.socket = sock;
+        }
+        /**
+         * Arm the deadline, from now.
+         * @param knd Kind of the deadline
+         */
+        public void arm(final Deadlines.Kind knd) {
+            if (this.wheel != null && !this.over) {
+                this.kind = knd;
+                this.expiry = this.wheel.now()
+                    + this.wheel.durations[knd.ordinal()];
+                this.enqueue();
+            }
+        }
+        /**
+         * Disarm the deadline.
+         */
+        public void disarm() {
+            this.expiry = 0L;
+        }
+        /**
+         * Did it expire and close the socket?
+         * @return TRUE if it did
+         */
+        public boolean expired() {
+            return this.over;
+        }
+        /**
+         * Watch writes to the stream, arming {@link Deadlines.Kind#BODY}
+         * deadline before every write and disarming it afterwards.
+         * @param stream The stream to watch
+         * @return Watched stream
+         */
+        public OutputStream watch(final OutputStream stream) {
+            final Deadlines.Deadline deadline = this;
+            return new FilterOutputStream(stream) {
+                @Override
+                public void write(final int data) throws IOException {
+                    deadline.arm(Deadlines.Kind.BODY);
+                    try {
+                        this.out.write(data);
+                    } finally {
+                        deadline.disarm();
+                    }
+                }
+                @Override
+                public void write(final byte[] data, final int off,
+                    final int len) throws IOException {
+                    deadline.arm(Deadlines.Kind.BODY);
+                    try {
+                        this.out.write(data, off, len);
+                    } finally {
+                        deadline.disarm();
+                    }
+                }
+                @Override
+                public void flush() throws IOException {
+                    deadline.arm(Deadlines.Kind.BODY);
+                    try {
+                        this.out.flush();
+                    } finally {
+                        deadline.disarm();
+                    }
+                }
+            };
+        }
+        /**
+         * Put it into the wheel, if it's not there yet.
+         */
+        private void enqueue() {
+            if (this.queued.compareAndSet(false, true)) {
+                this.wheel.put(this, this.expiry);
+            }
+        }
+        /**
+         * Check it, when its slot is processed.
+         * @param tick Current tick
+         */
+        private void check(final long tick) {
+            final long when = this.expiry;
+            if (when == 0L) {
+                this.queued.set(false);
+                if (this.expiry != 0L) {
+                    this.enqueue();
+                }
+            } else if (when <= tick) {
+                this.over = true;
+                this.wheel.expired.incrementAndGet(this.kind.ordinal());
+                Logger.debug(
+                    this, "#check(): %s deadline expired for %s",
+                    this.kind, this.socket
+                );
+                try {
+                    this.socket.close();
+                } catch (final IOException ex) {
+                    Logger.debug(this, "#check(): %s", ex);
+                }
+                this.queued.set(false);
+            } else {
+                this.wheel.put(this, when);
+            }
+        }
+    }
+
+}
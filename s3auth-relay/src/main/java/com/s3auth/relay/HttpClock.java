@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.relay;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.core.HttpHeaders;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * Clock of HTTP dates.
+ *
+ * <p>Formatting of RFC 1123 dates is expensive, that's why we format the
+ * current time only once a second, when the first response in this second
+ * asks for it, and keep it as a ready to send {@code Date} header line.
+ * Other dates (for example, {@code Last-Modified} of resources) are
+ * formatted once and then remembered, up to {@link #MAX} of them. When
+ * there are more, the least recently used ones are forgotten, so that
+ * dates of popular resources stay formatted.
+ *
+ * <p>The class is mutable and thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ * @see HttpResponse#withDate()
+ */
+@ToString(of = "tick")
+@EqualsAndHashCode(of = "tick")
+@Loggable(Loggable.DEBUG)
+final class HttpClock {
+
+    /**
+     * The clock used by all responses.
+     */
+    public static final HttpClock SYSTEM = new HttpClock();
+
+    /**
+     * Maximum number of dates to remember.
+     */
+    public static final int MAX = Tv.THOUSAND;
+
+    /**
+     * Current second.
+     */
+    private final transient AtomicReference<HttpClock.Tick> tick =
+        new AtomicReference<HttpClock.Tick>(new HttpClock.Tick(0L));
+
+    /**
+     * Formatted dates, by seconds since epoch.
+     */
+    private final transient Cache<Long, String> dates = CacheBuilder
+        .newBuilder().maximumSize((long) HttpClock.MAX).build();
+
+    /**
+     * Get {@code Date} header line of the current second, with EOL.
+     * @return Bytes of the header line, which must not be changed
+     */
+    @SuppressWarnings("PMD.MethodReturnsInternalArray")
+    public byte[] line() {
+        return this.now().bytes;
+    }
+
+    /**
+     * Get the current date, formatted.
+     * @return RFC 1123 date
+     */
+    public String text() {
+        return this.now().text;
+    }
+
+    /**
+     * Format the date.
+     * @param date The date to format
+     * @return RFC 1123 date
+     */
+    public String format(@NotNull final Date date) {
+        final Long second = TimeUnit.MILLISECONDS.toSeconds(date.getTime());
+        String text = this.dates.getIfPresent(second);
+        if (text == null) {
+            text = DateUtils.formatDate(date);
+            this.dates.put(second, text);
+        }
+        return text;
+    }
+
+    /**
+     * Get current second, formatting it if necessary.
+     * @return The tick
+     */
+    private HttpClock.Tick now() {
+        final long second = TimeUnit.MILLISECONDS.toSeconds(
+            System.currentTimeMillis()
+        );
+        HttpClock.Tick current = this.tick.get();
+        if (current.second != second) {
+            final HttpClock.Tick next = new HttpClock.Tick(second);
+            this.tick.compareAndSet(current, next);
+            current = next;
+        }
+        return current;
+    }
+
+    /**
+     * One second, formatted.
+     */
+    @ToString(of = "text")
+    @EqualsAndHashCode(of = "second")
+    private static final class Tick {
+        /**
+         * Seconds since epoch.
+         */
+        private final transient long second;
+        /**
+         * RFC 1123 date.
+         */
+        private final transient String text;
+        /**
+         * Header line, with EOL.
+         */
+        private final transient byte[] bytes;
+        /**
+         * Public ctor.
+         * @param sec Seconds since epoch
+         */
+        Tick(final long sec) {
+            this.second = sec;
+            this.text = DateUtils.formatDate(
+                new Date(TimeUnit.SECONDS.toMillis(sec))
+            );
+            this.bytes = String.format(
+                "%s: %s\r\n", HttpHeaders.DATE, this.text
+            ).getBytes(Charset.forName("ISO-8859-1"));
+        }
+    }
+
+}
@@ -35,23 +35,57 @@ import com.jcabi.log.Logger;
 import com.jcabi.log.VerboseRunnable;
 import com.jcabi.log.VerboseThreads;
 import com.s3auth.hosts.Hosts;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import javax.validation.constraints.NotNull;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
+import org.apache.commons.io.IOUtils;
 
 /**
  * HTTP facade (port listener).
  *
+ * <p>Every accepted socket is dispatched by its own thread, which is
+ * virtual if the JVM supports them (see {@link #executor()}), or an
+ * ordinary pooled one otherwise. Blocking reads from S3 don't limit
+ * concurrency, since threads are not taken from a fixed pool. Instead,
+ * the number of requests served at the same time is limited by
+ * {@link Admission}, which adapts the limit to the latency of requests.
+ * A connection takes a permit for its first request here, and then
+ * releases and takes it again in {@link HttpThread}, so that a
+ * persistent connection holds no permit while it is idle.
+ *
+ * <p>Accepted connections wait in a bounded queue until the limit lets
+ * them in, in the order of arrival. A connection is rejected with a
+ * ready-made HTTP 503 response with {@code Retry-After} header when the
+ * queue is full, when it has waited longer than {@link #WAIT}
+ * milliseconds, or when the JVM is running out of memory. The queue is
+ * checked for such connections at least every {@link #SWEEP}
+ * milliseconds, even if nothing else happens.
+ *
+ * <p>Connections are accepted by a few shards (see {@link #SHARDS}), each
+ * with its own accepting thread and its own executor of connections.
+ * When the JVM supports {@code SO_REUSEPORT} (Java 9 and later, found by
+ * reflection), every shard binds its own server socket to the port, and
+ * the kernel spreads new connections between them. Otherwise, all shards
+ * accept connections from one shared server socket.
+ *
  * <p>The class is instantiated in {@link Main}, once per application run.
  *
  * <p>The class is mutable and thread-safe.
@@ -63,42 +97,74 @@ import lombok.ToString;
  * @checkstyle ClassDataAbstractionCoupling (500 lines)
  */
 @ToString
-@EqualsAndHashCode(of = { "sockets", "server" })
+@EqualsAndHashCode(of = "shards")
 @SuppressWarnings("PMD.DoNotUseThreads")
 @Loggable(Loggable.DEBUG)
 final class HttpFacade implements Closeable {
 
     /**
-     * How many threads to use.
+     * Default maximum number of requests served at the same time.
      */
-    private static final int THREADS =
-        Runtime.getRuntime().availableProcessors() * Tv.TWENTY;
+    public static final int BUDGET = 10 * 1024;
 
     /**
-     * Executor service, with socket openers.
+     * Default number of shards.
      */
-    private final transient ScheduledExecutorService frontend =
-        Executors.newSingleThreadScheduledExecutor(new VerboseThreads("front"));
+    public static final int SHARDS =
+        Runtime.getRuntime().availableProcessors();
 
     /**
-     * Executor service, with consuming threads.
+     * Maximum time a connection (or its next request) may wait for
+     * a permit, in milliseconds.
      */
-    private final transient ScheduledExecutorService backend =
-        Executors.newScheduledThreadPool(
-            HttpFacade.THREADS,
-            new VerboseThreads("back")
-        );
+    static final long WAIT = TimeUnit.SECONDS.toMillis(Tv.THREE);
+
+    /**
+     * How often the queue is checked, in milliseconds.
+     */
+    private static final int SWEEP = (int) TimeUnit.SECONDS.toMillis(1L);
+
+    /**
+     * When clients should try again after rejection, in seconds.
+     */
+    private static final int RETRY = Tv.FIVE;
+
+    /**
+     * Ready-made response to rejected connections and requests.
+     */
+    static final byte[] BUSY = HttpFacade.busy();
+
+    /**
+     * Minimum amount of free memory required to accept a connection,
+     * in bytes.
+     */
+    private static final long HEADROOM = 16L * 1024L * 1024L;
+
+    /**
+     * Shards, accepting connections.
+     */
+    private final transient HttpFacade.Shard[] shards;
 
     /**
-     * Blocking queue of ready-to-be-processed sockets.
+     * Limit of connections served at the same time.
      */
-    private final transient BlockingQueue<Socket> sockets =
-        new SynchronousQueue<Socket>();
+    private final transient Admission admission;
 
     /**
-     * Server socket.
+     * Connections waiting to be served.
      */
-    private final transient ServerSocket server;
+    private final transient BlockingQueue<HttpFacade.Waiting> waiting;
+
+    /**
+     * Connections being served, to be closed on shutdown.
+     */
+    private final transient Set<Socket> open =
+        Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>(0));
+
+    /**
+     * HTTP processor.
+     */
+    private final transient HttpThread thread;
 
     /**
      * Public ctor.
@@ -108,27 +174,88 @@ final class HttpFacade implements Closeable {
      */
     HttpFacade(@NotNull final Hosts hosts, final int port)
         throws IOException {
-        this.server = new ServerSocket(port);
-        final HttpThread thread = new HttpThread(this.sockets, hosts);
-        final Runnable runnable = new VerboseRunnable(
-            new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        thread.dispatch();
-                    } catch (InterruptedException ex) {
-                        Thread.currentThread().interrupt();
-                        Logger.warn(this, "%s", ex);
-                    }
-                }
-            },
-            true, false
+        this(hosts, port, HttpFacade.BUDGET);
+    }
+
+    /**
+     * Public ctor.
+     * @param hosts Hosts
+     * @param port Port number
+     * @param max Maximum number of connections served at the same time
+     * @throws IOException If can't initialize
+     */
+    HttpFacade(@NotNull final Hosts hosts, final int port, final int max)
+        throws IOException {
+        this(hosts, port, new Admission(max));
+    }
+
+    /**
+     * Public ctor.
+     * @param hosts Hosts
+     * @param port Port number
+     * @param adm Limit of connections, fed by latency of our requests
+     * @throws IOException If can't initialize
+     */
+    HttpFacade(@NotNull final Hosts hosts, final int port,
+        @NotNull final Admission adm) throws IOException {
+        this(
+            new HttpThread(hosts, HttpThread.IDLE, HttpThread.REQUESTS, adm),
+            port, adm
         );
-        for (int idx = 0; idx < HttpFacade.THREADS; ++idx) {
-            this.backend.scheduleWithFixedDelay(
-                runnable,
-                0L, 1L, TimeUnit.NANOSECONDS
-            );
+    }
+
+    /**
+     * Public ctor.
+     * @param thrd HTTP processor
+     * @param port Port number
+     * @param max Maximum number of connections served at the same time
+     * @throws IOException If can't initialize
+     */
+    HttpFacade(@NotNull final HttpThread thrd, final int port, final int max)
+        throws IOException {
+        this(thrd, port, new Admission(max));
+    }
+
+    /**
+     * Public ctor.
+     *
+     * <p>The queue of waiting connections is ten times shorter than
+     * the maximum limit of {@link Admission}.
+     *
+     * @param thrd HTTP processor
+     * @param port Port number
+     * @param adm Limit of connections served at the same time
+     * @throws IOException If can't initialize
+     */
+    HttpFacade(@NotNull final HttpThread thrd, final int port,
+        @NotNull final Admission adm) throws IOException {
+        this(thrd, port, adm, HttpFacade.SHARDS);
+    }
+
+    /**
+     * Public ctor.
+     *
+     * <p>The queue of waiting connections is ten times shorter than
+     * the maximum limit of {@link Admission}, and is shared by all shards.
+     *
+     * @param thrd HTTP processor
+     * @param port Port number
+     * @param adm Limit of connections served at the same time
+     * @param count How many shards to accept connections with
+     * @throws IOException If can't initialize
+     * @checkstyle ParameterNumber (4 lines)
+     */
+    HttpFacade(@NotNull final HttpThread thrd, final int port,
+        @NotNull final Admission adm, final int count) throws IOException {
+        this.thread = thrd;
+        this.admission = adm;
+        this.waiting = new ArrayBlockingQueue<HttpFacade.Waiting>(
+            Math.max(1, adm.max() / Tv.TEN)
+        );
+        final ServerSocket[] sockets = HttpFacade.bind(port, count);
+        this.shards = new HttpFacade.Shard[sockets.length];
+        for (int idx = 0; idx < sockets.length; ++idx) {
+            this.shards[idx] = new HttpFacade.Shard(sockets[idx]);
         }
     }
 
@@ -136,92 +263,380 @@ final class HttpFacade implements Closeable {
      * Start listening to the port.
      */
     public void listen() {
-        this.frontend.scheduleWithFixedDelay(
-            new VerboseRunnable(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        HttpFacade.this.process();
-                    }
-                }
-            ),
-            0L, 1L, TimeUnit.NANOSECONDS
-        );
+        for (final HttpFacade.Shard shard : this.shards) {
+            shard.listen();
+        }
     }
 
     @Override
     public void close() throws IOException {
+        for (final HttpFacade.Shard shard : this.shards) {
+            shard.server.close();
+        }
+        for (final Socket socket : this.open) {
+            IOUtils.closeQuietly(socket);
+        }
         try {
-            this.shutdown(this.frontend);
-            this.shutdown(this.backend);
+            for (final HttpFacade.Shard shard : this.shards) {
+                HttpFacade.shutdown(shard.frontend);
+                HttpFacade.shutdown(shard.backend);
+            }
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new IOException(ex);
         }
-        this.server.close();
+        this.thread.close();
     }
 
     /**
-     * Process one socket.
+     * Serve waiting connections, while the limit allows, and reject
+     * those waiting for too long.
      */
-    private void process() {
-        final Socket socket;
-        try {
-            socket = this.server.accept();
-        } catch (IOException ex) {
-            throw new IllegalStateException(ex);
+    private void drain() {
+        while (true) {
+            final HttpFacade.Waiting head = this.waiting.peek();
+            if (head == null) {
+                break;
+            }
+            if (head.age() > HttpFacade.WAIT) {
+                if (this.waiting.remove(head)) {
+                    this.reject(
+                        head.socket(),
+                        String.format("waited %d ms", head.age())
+                    );
+                }
+                continue;
+            }
+            if (!this.admission.acquire()) {
+                break;
+            }
+            if (this.waiting.remove(head)) {
+                head.shard().serve(head.socket());
+            } else {
+                this.admission.release();
+            }
         }
+    }
+
+    /**
+     * Send ready-made rejection to the socket and close it.
+     * @param socket The socket to reject
+     * @param reason Why it is rejected
+     */
+    private void reject(final Socket socket, final String reason) {
+        Logger.debug(
+            this, "#reject(): %s, admission is %s", reason, this.admission
+        );
         try {
-            if (!this.sockets.offer(socket, Tv.TEN, TimeUnit.SECONDS)) {
-                this.overflow(socket);
-                Logger.warn(this, "too many open connections");
-            }
-        } catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
-            throw new IllegalStateException(ex);
+            socket.getOutputStream().write(HttpFacade.BUSY);
+        } catch (final IOException ex) {
+            Logger.debug(this, "#reject(): %s", ex);
+        } finally {
+            IOUtils.closeQuietly(socket);
         }
     }
 
     /**
-     * Report overflow problem to the socket and close it.
-     * @param socket The socket to report to
+     * Render the response to rejected connections.
+     * @return Bytes of HTTP response
      */
-    private void overflow(final Socket socket) {
+    private static byte[] busy() {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
         try {
             new HttpResponse()
-                .withStatus(HttpURLConnection.HTTP_GATEWAY_TIMEOUT)
+                .withStatus(HttpURLConnection.HTTP_UNAVAILABLE)
+                .withHeader(
+                    org.apache.http.HttpHeaders.RETRY_AFTER,
+                    Integer.toString(HttpFacade.RETRY)
+                )
+                .withHeader(org.apache.http.HttpHeaders.CONNECTION, "close")
                 .withBody(
-                    String.format(
-                        // @checkstyle LineLength (1 line)
-                        "We're sorry, the site is under high load at the moment (%d open connections), please try again in a few minutes",
-                        HttpFacade.THREADS
-                    )
+                    // @checkstyle LineLength (1 line)
+                    "We're sorry, the site is under high load at the moment, please try again in a few seconds"
                 )
-                .send(socket);
-        } catch (IOException ex) {
+                .send(stream);
+        } catch (final IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * Bind server sockets of shards to the port.
+     * @param port Port number
+     * @param count How many shards we need
+     * @return Server sockets, the same one for all shards if the JVM
+     *  doesn't support {@code SO_REUSEPORT}
+     * @throws IOException If can't bind
+     */
+    private static ServerSocket[] bind(final int port, final int count)
+        throws IOException {
+        final ServerSocket[] sockets = new ServerSocket[Math.max(1, count)];
+        sockets[0] = new ServerSocket();
+        final boolean reuse = sockets.length > 1
+            && HttpFacade.reuse(sockets[0]);
+        sockets[0].bind(new InetSocketAddress(port));
+        sockets[0].setSoTimeout(HttpFacade.SWEEP);
+        for (int idx = 1; idx < sockets.length; ++idx) {
+            if (reuse) {
+                sockets[idx] = new ServerSocket();
+                HttpFacade.reuse(sockets[idx]);
+                sockets[idx].bind(new InetSocketAddress(port));
+                sockets[idx].setSoTimeout(HttpFacade.SWEEP);
+            } else {
+                sockets[idx] = sockets[0];
+            }
+        }
+        return sockets;
+    }
+
+    /**
+     * Enable {@code SO_REUSEPORT} on the server socket, if the JVM and
+     * the platform support it.
+     * @param socket Server socket, not bound yet
+     * @return TRUE if enabled
+     */
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private static boolean reuse(final ServerSocket socket) {
+        boolean enabled;
+        try {
+            ServerSocket.class.getMethod(
+                "setOption", Class.forName("java.net.SocketOption"),
+                Object.class
+            ).invoke(
+                socket,
+                Class.forName("java.net.StandardSocketOptions")
+                    .getField("SO_REUSEPORT").get(null),
+                Boolean.TRUE
+            );
+            enabled = true;
+        // @checkstyle IllegalCatch (1 line)
+        } catch (final Exception ex) {
+            Logger.info(
+                HttpFacade.class, "SO_REUSEPORT is not available: %s", ex
+            );
+            enabled = false;
+        }
+        return enabled;
+    }
+
+    /**
+     * Is JVM running out of memory?
+     * @return TRUE if there is not enough free memory for a connection
+     */
+    private static boolean starving() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - runtime.totalMemory()
+            + runtime.freeMemory() < HttpFacade.HEADROOM;
+    }
+
+    /**
+     * Make an executor that starts a new thread for every task.
+     *
+     * <p>Virtual threads are used when the JVM provides them
+     * ({@code Executors.newVirtualThreadPerTaskExecutor()}), found
+     * by reflection, since we compile for older JVMs.
+     *
+     * @return Executor service
+     */
+    private static ExecutorService executor() {
+        ExecutorService service;
+        try {
+            service = ExecutorService.class.cast(
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null)
+            );
+            Logger.info(HttpFacade.class, "using virtual threads");
+        } catch (final NoSuchMethodException ex) {
+            service = Executors.newCachedThreadPool(new VerboseThreads("back"));
+        } catch (final IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        } catch (final InvocationTargetException ex) {
             throw new IllegalStateException(ex);
         }
+        return service;
     }
 
     /**
-     * Shutdown a service.
+     * Shutdown a service (also used by {@link NioFacade}).
      * @param service The service to shut down
      * @throws InterruptedException If fails to shutdown
      */
-    private void shutdown(final ScheduledExecutorService service)
+    static void shutdown(final ExecutorService service)
         throws InterruptedException {
         service.shutdown();
         if (service.awaitTermination(2L, TimeUnit.SECONDS)) {
-            Logger.info(this, "#shutdown(): succeeded");
+            Logger.info(HttpFacade.class, "#shutdown(): succeeded");
         } else {
-            Logger.warn(this, "#shutdown(): failed");
+            Logger.warn(HttpFacade.class, "#shutdown(): failed");
             service.shutdownNow();
             if (service.awaitTermination(2L, TimeUnit.SECONDS)) {
-                Logger.info(this, "#shutdown(): shutdownNow() succeeded");
+                Logger.info(
+                    HttpFacade.class, "#shutdown(): shutdownNow() succeeded"
+                );
             } else {
-                Logger.error(this, "#shutdown(): failed to stop threads");
+                Logger.error(
+                    HttpFacade.class, "#shutdown(): failed to stop threads"
+                );
             }
         }
     }
 
+    /**
+     * Shard, with its own server socket and executors.
+     */
+    private final class Shard {
+        /**
+         * Server socket, maybe shared with other shards.
+         */
+        private final transient ServerSocket server;
+        /**
+         * Executor service, with socket opener.
+         */
+        private final transient ExecutorService frontend =
+            Executors.newSingleThreadExecutor(new VerboseThreads("front"));
+        /**
+         * Executor service, with a thread per connection.
+         */
+        private final transient ExecutorService backend =
+            HttpFacade.executor();
+        /**
+         * Public ctor.
+         * @param socket Server socket
+         */
+        Shard(final ServerSocket socket) {
+            this.server = socket;
+        }
+        /**
+         * Start accepting connections.
+         */
+        public void listen() {
+            final HttpFacade.Shard shard = this;
+            this.frontend.submit(
+                new VerboseRunnable(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            while (!shard.server.isClosed()) {
+                                shard.process();
+                            }
+                        }
+                    },
+                    true, false
+                )
+            );
+        }
+        /**
+         * Process one socket.
+         */
+        private void process() {
+            final Socket socket;
+            try {
+                socket = this.server.accept();
+            } catch (final SocketTimeoutException ex) {
+                HttpFacade.this.drain();
+                return;
+            } catch (final IOException ex) {
+                if (this.server.isClosed()) {
+                    return;
+                }
+                throw new IllegalStateException(ex);
+            }
+            if (HttpFacade.starving()) {
+                HttpFacade.this.reject(socket, "free memory is exhausted");
+            } else if (!HttpFacade.this.waiting.offer(
+                new HttpFacade.Waiting(socket, this)
+            )) {
+                HttpFacade.this.reject(
+                    socket,
+                    String.format(
+                        "%d connections waiting",
+                        HttpFacade.this.waiting.size()
+                    )
+                );
+            }
+            HttpFacade.this.drain();
+        }
+        /**
+         * Serve the connection in its own thread.
+         * @param socket The socket to serve
+         */
+        public void serve(final Socket socket) {
+            try {
+                this.backend.execute(
+                    new VerboseRunnable(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                HttpFacade.this.open.add(socket);
+                                try {
+                                    HttpFacade.this.thread.dispatch(
+                                        socket, HttpFacade.this.admission
+                                    );
+                                } finally {
+                                    HttpFacade.this.open.remove(socket);
+                                    HttpFacade.this.drain();
+                                }
+                            }
+                        },
+                        true, false
+                    )
+                );
+            } catch (final RejectedExecutionException ex) {
+                HttpFacade.this.admission.release();
+                IOUtils.closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Connection waiting to be served.
+     */
+    private static final class Waiting {
+        /**
+         * The socket.
+         */
+        private final transient Socket sock;
+        /**
+         * Shard, which accepted it.
+         */
+        private final transient HttpFacade.Shard owner;
+        /**
+         * When it was accepted, in nanoseconds.
+         */
+        private final transient long start = System.nanoTime();
+        /**
+         * Public ctor.
+         * @param socket The socket
+         * @param shard Shard, which accepted it
+         */
+        Waiting(final Socket socket, final HttpFacade.Shard shard) {
+            this.sock = socket;
+            this.owner = shard;
+        }
+        /**
+         * Get the socket.
+         * @return The socket
+         */
+        public Socket socket() {
+            return this.sock;
+        }
+        /**
+         * Get the shard, which accepted it.
+         * @return The shard
+         */
+        public HttpFacade.Shard shard() {
+            return this.owner;
+        }
+        /**
+         * How long it is waiting.
+         * @return Milliseconds
+         */
+        public long age() {
+            return TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - this.start
+            );
+        }
+    }
+
 }
@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.relay;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import javax.validation.constraints.NotNull;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Buffered input of one HTTP connection.
+ *
+ * <p>The class reads request heads from the stream into a byte buffer,
+ * which is reused for all requests of the connection (it grows when
+ * necessary, up to {@link #MAX} bytes). Bytes read after the head stay
+ * in the buffer and become the beginning of the next request, if the
+ * client pipelines them:
+ *
+ * <pre> HttpInput input = new HttpInput(socket.getInputStream());
+ * while (input.more()) {
+ *   HttpRequest request = new HttpRequest(input);
+ * }</pre>
+ *
+ * <p>While the head of a request is being read, the
+ * {@link Deadlines.Kind#HEAD} deadline of the connection is armed, and
+ * while we're waiting for the next request, it's
+ * {@link Deadlines.Kind#IDLE} deadline.
+ *
+ * <p>The class is mutable and NOT thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ * @see HttpRequest
+ */
+@ToString(of = "stream")
+@EqualsAndHashCode(of = "stream")
+final class HttpInput {
+
+    /**
+     * Maximum size of HTTP request head, in bytes.
+     */
+    public static final int MAX = 16 * 1024;
+
+    /**
+     * Initial size of the buffer, in bytes.
+     */
+    private static final int INITIAL = 2 * 1024;
+
+    /**
+     * The stream to read from.
+     */
+    private final transient InputStream stream;
+
+    /**
+     * Deadline of the connection.
+     */
+    private final transient Deadlines.Deadline deadline;
+
+    /**
+     * The buffer, with unread bytes between its position and limit.
+     */
+    private transient ByteBuffer buffer;
+
+    /**
+     * Public ctor.
+     * @param input The stream to read from
+     */
+    HttpInput(@NotNull final InputStream input) {
+        this(input, Deadlines.Deadline.NONE);
+    }
+
+    /**
+     * Public ctor.
+     * @param input The stream to read from
+     * @param dln Deadline of the connection
+     */
+    HttpInput(@NotNull final InputStream input,
+        @NotNull final Deadlines.Deadline dln) {
+        this.stream = input;
+        this.deadline = dln;
+        this.buffer = ByteBuffer.allocate(HttpInput.INITIAL);
+        this.buffer.flip();
+    }
+
+    /**
+     * Read the next request head, up to the empty line.
+     *
+     * <p>Empty lines in front of the head are ignored, as RFC 2616
+     * (section 4.1) recommends. The returned array contains the request
+     * line and all header lines, each of them followed by LF (maybe
+     * preceded by CR), without the empty line.
+     *
+     * @return Bytes of the head or NULL if the stream is over
+     * @throws IOException If fails to read or the head is too big
+     */
+    public byte[] head() throws IOException {
+        byte[] head = null;
+        int from = 0;
+        this.deadline.arm(Deadlines.Kind.HEAD);
+        try {
+            while (true) {
+                this.trim();
+                final int end = HttpInput.end(this.buffer, from);
+                if (end >= 0) {
+                    head = new byte[end - this.buffer.position()];
+                    this.buffer.get(head);
+                    while (this.buffer.get() != '\n') {
+                        continue;
+                    }
+                    break;
+                }
+                from = Math.max(this.buffer.remaining() - 2, 0);
+                if (!this.fill()) {
+                    if (this.buffer.hasRemaining()) {
+                        throw new HttpException(
+                            HttpURLConnection.HTTP_BAD_REQUEST,
+                            "incomplete request head"
+                        );
+                    }
+                    break;
+                }
+            }
+        } finally {
+            this.deadline.disarm();
+        }
+        return head;
+    }
+
+    /**
+     * Skip this amount of bytes (request body).
+     * @param length How many bytes to skip
+     * @throws IOException If fails
+     */
+    public void skip(final long length) throws IOException {
+        final int local = (int) Math.min(length, this.buffer.remaining());
+        this.buffer.position(this.buffer.position() + local);
+        if (length > local) {
+            this.deadline.arm(Deadlines.Kind.HEAD);
+            try {
+                IOUtils.skipFully(this.stream, length - local);
+            } finally {
+                this.deadline.disarm();
+            }
+        }
+    }
+
+    /**
+     * Wait for more data, if there is nothing in the buffer.
+     * @return TRUE if there is more data, FALSE if the stream is over
+     * @throws IOException If fails
+     */
+    public boolean more() throws IOException {
+        boolean more = this.buffer.hasRemaining();
+        if (!more) {
+            this.deadline.arm(Deadlines.Kind.IDLE);
+            try {
+                more = this.fill();
+            } finally {
+                this.deadline.disarm();
+            }
+        }
+        return more;
+    }
+
+    /**
+     * Is there more data available without blocking?
+     * @return TRUE if some data are ready to be read
+     * @throws IOException If fails
+     */
+    public boolean ready() throws IOException {
+        return this.buffer.hasRemaining() || this.stream.available() > 0;
+    }
+
+    /**
+     * Skip empty lines in front of the head.
+     */
+    private void trim() {
+        while (this.buffer.hasRemaining()) {
+            final byte data = this.buffer.get(this.buffer.position());
+            if (data != '\r' && data != '\n') {
+                break;
+            }
+            this.buffer.get();
+        }
+    }
+
+    /**
+     * Read more bytes from the stream into the buffer, growing it if
+     * it is full.
+     * @return TRUE if something was read, FALSE if the stream is over
+     * @throws IOException If fails or the buffer can't grow any more
+     */
+    private boolean fill() throws IOException {
+        if (this.buffer.remaining() == this.buffer.capacity()) {
+            if (this.buffer.capacity() >= HttpInput.MAX) {
+                throw new HttpException(
+                    HttpURLConnection.HTTP_BAD_REQUEST,
+                    "request head is too large"
+                );
+            }
+            final ByteBuffer bigger = ByteBuffer.allocate(
+                Math.min(this.buffer.capacity() * 2, HttpInput.MAX)
+            );
+            bigger.put(this.buffer);
+            bigger.flip();
+            this.buffer = bigger;
+        }
+        this.buffer.compact();
+        final int count = this.stream.read(
+            this.buffer.array(),
+            this.buffer.position(),
+            this.buffer.remaining()
+        );
+        if (count > 0) {
+            this.buffer.position(this.buffer.position() + count);
+        }
+        this.buffer.flip();
+        return count > 0;
+    }
+
+    /**
+     * Find the end of request head in the buffer.
+     * @param buffer The buffer
+     * @param from Where to start searching, relative to its position
+     * @return Absolute position of the empty line, or -1 if not found
+     */
+    private static int end(final ByteBuffer buffer, final int from) {
+        final byte[] data = buffer.array();
+        final int start = buffer.position();
+        int end = -1;
+        for (int pos = start + Math.max(from, 1); pos < buffer.limit();
+            ++pos) {
+            if (data[pos] != '\n') {
+                continue;
+            }
+            if (data[pos - 1] == '\n') {
+                end = pos;
+                break;
+            }
+            if (data[pos - 1] == '\r' && pos - 1 > start
+                && data[pos - 2] == '\n') {
+                end = pos - 1;
+                break;
+            }
+        }
+        return end;
+    }
+
+}
@@ -30,24 +30,25 @@
 package com.s3auth.relay;
 
 import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
 import com.s3auth.hosts.Range;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.Socket;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.validation.constraints.NotNull;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import org.apache.commons.collections4.map.CaseInsensitiveMap;
+import org.apache.http.HttpHeaders;
 
 /**
  * HTTP request.
@@ -57,11 +58,23 @@ import org.apache.commons.collections4.map.CaseInsensitiveMap;
  *
  * <pre>
  * HttpRequest req = new HttpRequest(socket);
- * String type = req.headers().get("Accept").iterator().next();
+ * String type = req.header("Accept");
  * URI uri = req.requestUri();
  * </pre>
  *
- * <p>We don't support any other methods except "GET".
+ * <p>The head of the request is parsed byte by byte, without regular
+ * expressions and without decoding it into strings. We only remember where
+ * header names and values are located. Headers we need for almost every
+ * request (see {@link #KNOWN}) are recognized during parsing, while values
+ * of all headers are decoded only when asked for. The head can't be longer
+ * than {@link HttpInput#MAX} bytes and can't have more than
+ * {@link #HEADERS} headers.
+ *
+ * <p>We don't support any other methods except "GET". Requests with
+ * {@code Transfer-Encoding} are rejected, since we can't find where their
+ * bodies end, and the next request of a persistent connection would be
+ * read from the middle of a body (request smuggling). The connection is
+ * closed after such a rejection (see {@link HttpThread}).
  *
  * <p>The class is mutable and thread-safe.
  *
@@ -70,35 +83,98 @@ import org.apache.commons.collections4.map.CaseInsensitiveMap;
  * @since 0.0.1
  * @see HttpThread
  */
-@ToString
-@EqualsAndHashCode(of = { "mtd", "uri", "hdrs" })
+@ToString(of = { "mtd", "uri" })
+@EqualsAndHashCode(of = { "mtd", "uri", "head" })
 @Loggable(Loggable.DEBUG)
-@SuppressWarnings("PMD.UseConcurrentHashMap")
+@SuppressWarnings({ "PMD.UseConcurrentHashMap", "PMD.TooManyMethods" })
 final class HttpRequest {
 
     /**
-     * Range HTTP header.
-     * @see <a href="HTTP headers">http://en.wikipedia.org/wiki/List_of_HTTP_header_fields</a>
+     * Maximum number of headers in one request.
+     */
+    public static final int HEADERS = Tv.HUNDRED;
+
+    /**
+     * Charset of header values.
+     */
+    private static final Charset LATIN = Charset.forName("ISO-8859-1");
+
+    /**
+     * Charset of request URI.
+     */
+    private static final Charset UTF = Charset.forName("UTF-8");
+
+    /**
+     * Names of headers recognized during parsing, in lower case.
+     */
+    private static final String[] KNOWN = {
+        HttpHeaders.HOST.toLowerCase(Locale.ENGLISH),
+        HttpHeaders.RANGE.toLowerCase(Locale.ENGLISH),
+        HttpHeaders.AUTHORIZATION.toLowerCase(Locale.ENGLISH),
+        HttpHeaders.IF_NONE_MATCH.toLowerCase(Locale.ENGLISH),
+        HttpHeaders.IF_MODIFIED_SINCE.toLowerCase(Locale.ENGLISH),
+        HttpHeaders.CONNECTION.toLowerCase(Locale.ENGLISH),
+        HttpHeaders.CONTENT_LENGTH.toLowerCase(Locale.ENGLISH),
+        HttpHeaders.TRANSFER_ENCODING.toLowerCase(Locale.ENGLISH),
+    };
+
+    /**
+     * Position of Host header in {@link #KNOWN}.
+     */
+    private static final int HOST = 0;
+
+    /**
+     * Position of Range header in {@link #KNOWN}.
+     */
+    private static final int RANGE = 1;
+
+    /**
+     * Position of Connection header in {@link #KNOWN}.
+     */
+    private static final int CONNECTION = 5;
+
+    /**
+     * Position of Content-Length header in {@link #KNOWN}.
+     */
+    private static final int LENGTH = 6;
+
+    /**
+     * Position of Transfer-Encoding header in {@link #KNOWN}.
      */
-    private static final String RANGE_HEADER = "Range";
+    private static final int ENCODING = 7;
 
     /**
-     * Range header matching pattern.
+     * Pre-encoded names of headers recognized during parsing.
      */
-    private static final Pattern RANGE_PATTERN =
-        Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private static final byte[][] NAMES = HttpRequest.encode(
+        HttpRequest.KNOWN
+    );
 
     /**
-     * TOP line pattern.
+     * HTTP methods we understand.
      */
-    private static final Pattern TOP =
-        Pattern.compile("(GET|POST|PUT|OPTIONS) (/[^ ]*) HTTP/1\\.(0|1)");
+    private static final String[] METHODS = {"GET", "POST", "PUT", "OPTIONS"};
 
     /**
-     * Header line pattern.
+     * Pre-encoded HTTP methods we understand.
      */
-    private static final Pattern HEADER =
-        Pattern.compile("([a-zA-Z][a-zA-Z\\-]*):\\s*(.*)\\s*");
+    private static final byte[][] VERBS = HttpRequest.encode(
+        HttpRequest.METHODS
+    );
+
+    /**
+     * Pre-encoded prefix of HTTP version.
+     */
+    private static final byte[] VERSION = HttpRequest.encode(
+        new String[] {"HTTP/1."}
+    )[0];
+
+    /**
+     * Pre-encoded prefix of Range header value.
+     */
+    private static final byte[] BYTES = HttpRequest.encode(
+        new String[] {"bytes="}
+    )[0];
 
     /**
      * HTTP mtd.
@@ -111,9 +187,30 @@ final class HttpRequest {
     private final transient URI uri;
 
     /**
-     * HTTP headers.
+     * Minor version of HTTP protocol, either 0 or 1.
      */
-    private final transient Map<String, Collection<String>> hdrs;
+    private final transient int minor;
+
+    /**
+     * Bytes of the head.
+     */
+    private final transient byte[] head;
+
+    /**
+     * Positions of header names and values in the head, four numbers per
+     * header: start and end of name, start and end of value.
+     */
+    private final transient int[] lines;
+
+    /**
+     * Numbers of headers from {@link #KNOWN}, or -1 if absent.
+     */
+    private final transient int[] known;
+
+    /**
+     * HTTP headers, decoded when asked for the first time.
+     */
+    private transient Map<String, Collection<String>> hdrs;
 
     /**
      * Public ctor.
@@ -126,51 +223,176 @@ final class HttpRequest {
      * @see <a href="http://en.wikipedia.org/wiki/Hypertext_Transfer_Protocol">HTTP</a>
      */
     HttpRequest(@NotNull final Socket socket) throws IOException {
-        final BufferedReader reader = new BufferedReader(
-            new InputStreamReader(socket.getInputStream())
-        );
-        final String top = reader.readLine();
-        if (top == null) {
+        this(socket.getInputStream());
+    }
+
+    /**
+     * Ctor that reads the request from a stream.
+     *
+     * <p>The stream is not closed here, for the same reason as above.
+     *
+     * @param stream Stream to read from
+     * @throws IOException If some problem with the stream
+     */
+    HttpRequest(@NotNull final InputStream stream) throws IOException {
+        this(new HttpInput(stream));
+    }
+
+    /**
+     * Ctor that reads the request from a connection input.
+     *
+     * <p>The input is read exactly up to the end of the request (including
+     * its body, if {@code Content-Length} is specified), so that the next
+     * request of a persistent connection can be read from it.
+     *
+     * @param input Input to read from
+     * @throws IOException If some problem with the input
+     * @checkstyle ExecutableStatementCount (100 lines)
+     */
+    HttpRequest(@NotNull final HttpInput input) throws IOException {
+        final byte[] data = input.head();
+        if (data == null) {
             throw new HttpException(
                 HttpURLConnection.HTTP_BAD_REQUEST,
                 "empty request"
             );
         }
-        final Matcher matcher = HttpRequest.TOP.matcher(top);
-        if (!matcher.matches()) {
+        this.head = data;
+        final int eol = HttpRequest.find(data, '\n', 0, data.length);
+        final int top = HttpRequest.strip(data, 0, eol);
+        final int first = HttpRequest.find(data, ' ', 0, top);
+        final int second = HttpRequest.find(data, ' ', first + 1, top);
+        final int verb = HttpRequest.match(
+            HttpRequest.VERBS, false, data, 0, first
+        );
+        if (verb < 0 || second >= top || data[first + 1] != '/'
+            || top - second - 1 != HttpRequest.VERSION.length + 1
+            || !HttpRequest.same(
+                data, second + 1, top - 1, HttpRequest.VERSION, false
+            )
+            || data[top - 1] != '0' && data[top - 1] != '1') {
             throw new HttpException(
                 HttpURLConnection.HTTP_BAD_REQUEST,
-                String.format("invalid first line: '%s'", top)
+                String.format(
+                    "invalid first line: '%s'",
+                    new String(data, 0, top, HttpRequest.LATIN)
+                )
             );
         }
-        if (!"GET".equals(matcher.group(1))) {
+        this.mtd = HttpRequest.METHODS[verb];
+        if (!"GET".equals(this.mtd)) {
             throw new HttpException(
                 HttpURLConnection.HTTP_BAD_METHOD,
                 "only GET mtd is supported"
             );
         }
-        this.mtd = matcher.group(1);
-        this.uri = URI.create(matcher.group(2));
-        final Collection<String> headers = new LinkedList<String>();
-        while (true) {
-            final String line = reader.readLine();
-            if (line == null) {
-                break;
-            }
-            if (line.isEmpty()) {
-                break;
+        try {
+            this.uri = URI.create(
+                new String(data, first + 1, second - first - 1, HttpRequest.UTF)
+            );
+        } catch (final IllegalArgumentException ex) {
+            throw new HttpException(HttpURLConnection.HTTP_BAD_REQUEST, ex);
+        }
+        this.minor = data[top - 1] - '0';
+        int total = 0;
+        for (int pos = eol + 1; pos < data.length; ++pos) {
+            if (data[pos] == '\n') {
+                ++total;
             }
-            headers.add(line);
         }
-        this.hdrs = Collections.unmodifiableMap(this.parse(headers));
+        if (total > HttpRequest.HEADERS) {
+            throw new HttpException(
+                HttpURLConnection.HTTP_BAD_REQUEST,
+                String.format("more than %d headers", HttpRequest.HEADERS)
+            );
+        }
+        this.lines = new int[total * Tv.FOUR];
+        this.known = new int[HttpRequest.KNOWN.length];
+        Arrays.fill(this.known, -1);
+        int start = eol + 1;
+        for (int idx = 0; idx < total; ++idx) {
+            final int end = HttpRequest.find(data, '\n', start, data.length);
+            this.parse(idx, start, HttpRequest.strip(data, start, end));
+            start = end + 1;
+        }
+        if (this.known[HttpRequest.ENCODING] >= 0) {
+            throw new HttpException(
+                HttpURLConnection.HTTP_NOT_IMPLEMENTED,
+                String.format(
+                    "'%s' HTTP header is not supported",
+                    HttpHeaders.TRANSFER_ENCODING
+                )
+            );
+        }
+        input.skip(this.length());
     }
 
     /**
      * Get all found HTTP headers. Note that the returned map is unmodifiable.
+     *
+     * <p>Header values are decoded when this method is called for the first
+     * time. Use {@link #header(String)} when you need just one of them.
+     *
      * @return Headers
      */
+    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
     public Map<String, Collection<String>> headers() {
-        return this.hdrs;
+        synchronized (this.lines) {
+            if (this.hdrs == null) {
+                final Map<String, Collection<String>> map =
+                    new CaseInsensitiveMap<String, Collection<String>>();
+                for (int idx = 0; idx < this.lines.length / Tv.FOUR; ++idx) {
+                    final String name = new String(
+                        this.head, this.lines[idx * Tv.FOUR],
+                        this.lines[idx * Tv.FOUR + 1]
+                            - this.lines[idx * Tv.FOUR],
+                        HttpRequest.LATIN
+                    ).toLowerCase(Locale.ENGLISH);
+                    if (!map.containsKey(name)) {
+                        map.put(name, new LinkedList<String>());
+                    }
+                    map.get(name).add(this.value(idx));
+                }
+                this.hdrs = Collections.unmodifiableMap(map);
+            }
+            return this.hdrs;
+        }
+    }
+
+    /**
+     * Get the value of the first HTTP header with this name.
+     * @param name Name of the header, case insensitive
+     * @return The value or NULL if there is no such header
+     */
+    public String header(@NotNull final String name) {
+        int found = -1;
+        for (int slot = 0; slot < HttpRequest.KNOWN.length; ++slot) {
+            if (HttpRequest.KNOWN[slot].equalsIgnoreCase(name)) {
+                found = this.known[slot];
+                break;
+            }
+        }
+        if (found < 0) {
+            final byte[] bytes = name.toLowerCase(Locale.ENGLISH)
+                .getBytes(HttpRequest.LATIN);
+            for (int idx = 0; idx < this.lines.length / Tv.FOUR; ++idx) {
+                if (this.lines[idx * Tv.FOUR + 1] - this.lines[idx * Tv.FOUR]
+                    == bytes.length && HttpRequest.same(
+                        this.head, this.lines[idx * Tv.FOUR],
+                        this.lines[idx * Tv.FOUR + 1], bytes, true
+                    )) {
+                    found = idx;
+                    break;
+                }
+            }
+        }
+        final String value;
+        if (found < 0) {
+            value = null;
+        } else {
+            value = this.value(found);
+        }
+        return value;
     }
 
     /**
@@ -189,6 +411,35 @@ final class HttpRequest {
         return this.mtd;
     }
 
+    /**
+     * Does the client want the connection to persist after this request?
+     *
+     * <p>HTTP/1.1 connections are persistent unless {@code Connection: close}
+     * is specified, while HTTP/1.0 connections are persistent only when
+     * {@code Connection: keep-alive} is explicitly requested.
+     *
+     * @return TRUE if the connection may be kept alive
+     * @see <a href="http://tools.ietf.org/html/rfc2616#section-8.1">RFC 2616</a>
+     */
+    public boolean persistent() {
+        boolean close = false;
+        boolean keep = this.minor > 0;
+        final int idx = this.known[HttpRequest.CONNECTION];
+        if (idx >= 0) {
+            final int end = this.lines[idx * Tv.FOUR + Tv.THREE];
+            int start = this.lines[idx * Tv.FOUR + 2];
+            while (start < end) {
+                final int comma = HttpRequest.find(this.head, ',', start, end);
+                final int left = HttpRequest.skip(this.head, start, comma);
+                final int right = HttpRequest.strip(this.head, left, comma);
+                close |= HttpRequest.token(this.head, left, right, "close");
+                keep |= HttpRequest.token(this.head, left, right, "keep-alive");
+                start = comma + 1;
+            }
+        }
+        return keep && !close;
+    }
+
     /**
      * Get range requested.
      * @return The URI
@@ -197,20 +448,25 @@ final class HttpRequest {
      */
     public Range range() throws HttpException {
         final Range range;
-        if (this.hdrs.containsKey(HttpRequest.RANGE_HEADER)) {
-            final Matcher matcher = HttpRequest.RANGE_PATTERN.matcher(
-                this.hdrs.get(HttpRequest.RANGE_HEADER).iterator().next()
-            );
-            if (!matcher.matches()) {
+        final int idx = this.known[HttpRequest.RANGE];
+        if (idx >= 0) {
+            final int start = this.lines[idx * Tv.FOUR + 2];
+            final int end = this.lines[idx * Tv.FOUR + Tv.THREE];
+            final int from = start + HttpRequest.BYTES.length;
+            final int dash = HttpRequest.find(this.head, '-', from, end);
+            final long first = HttpRequest.number(this.head, from, dash);
+            final long last = HttpRequest.number(this.head, dash + 1, end);
+            if (end - start < HttpRequest.BYTES.length
+                || !HttpRequest.same(
+                    this.head, start, from, HttpRequest.BYTES, false
+                )
+                || first < 0 || last < 0) {
                 throw new HttpException(
                     HttpURLConnection.HTTP_BAD_REQUEST,
                     "invalid Range header format"
                 );
             }
-            range = new Range.Simple(
-                Long.parseLong(matcher.group(1)),
-                Long.parseLong(matcher.group(2))
-            );
+            range = new Range.Simple(first, last);
         } else {
             range = Range.ENTIRE;
         }
@@ -218,32 +474,263 @@ final class HttpRequest {
     }
 
     /**
-     * Parse header lines and create full map.
-     * @param lines All lines
-     * @return Map of headers
-     * @throws HttpException If some socket problem
+     * Get length of request body.
+     * @return Length of the body, zero if there is no body
+     * @throws HttpException If the length is in wrong format
      */
-    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
-    private Map<String, Collection<String>> parse(
-        final Iterable<String> lines) throws HttpException {
-        final Map<String, Collection<String>> map =
-            new CaseInsensitiveMap<String, Collection<String>>();
-        for (final String line : lines) {
-            final Matcher matcher = HttpRequest.HEADER.matcher(line);
-            if (!matcher.matches()) {
+    private long length() throws HttpException {
+        final int idx = this.known[HttpRequest.LENGTH];
+        long length = 0L;
+        if (idx >= 0) {
+            length = HttpRequest.number(
+                this.head,
+                this.lines[idx * Tv.FOUR + 2],
+                this.lines[idx * Tv.FOUR + Tv.THREE]
+            );
+            if (length < 0) {
                 throw new HttpException(
                     HttpURLConnection.HTTP_BAD_REQUEST,
-                    String.format("invalid header line: '%s'", line)
+                    "invalid Content-Length header"
                 );
             }
-            final String name =
-                matcher.group(1).trim().toLowerCase(Locale.ENGLISH);
-            if (!map.containsKey(name)) {
-                map.put(name, new LinkedList<String>());
+        }
+        return length;
+    }
+
+    /**
+     * Parse one header line and remember where its name and value are.
+     * @param idx Number of the header
+     * @param start Start of the line in the head
+     * @param end End of the line, excluding EOL
+     * @throws HttpException If the line is in wrong format
+     */
+    private void parse(final int idx, final int start, final int end)
+        throws HttpException {
+        final int colon = HttpRequest.find(this.head, ':', start, end);
+        if (colon == start || colon == end
+            || !HttpRequest.name(this.head, start, colon)) {
+            throw new HttpException(
+                HttpURLConnection.HTTP_BAD_REQUEST,
+                String.format(
+                    "invalid header line: '%s'",
+                    new String(this.head, start, end - start, HttpRequest.LATIN)
+                )
+            );
+        }
+        final int value = HttpRequest.skip(this.head, colon + 1, end);
+        this.lines[idx * Tv.FOUR] = start;
+        this.lines[idx * Tv.FOUR + 1] = colon;
+        this.lines[idx * Tv.FOUR + 2] = value;
+        this.lines[idx * Tv.FOUR + Tv.THREE] =
+            HttpRequest.strip(this.head, value, end);
+        final int slot = HttpRequest.match(
+            HttpRequest.NAMES, true, this.head, start, colon
+        );
+        if (slot >= 0) {
+            if (this.known[slot] < 0) {
+                this.known[slot] = idx;
+            } else if (slot == HttpRequest.HOST
+                || slot == HttpRequest.LENGTH) {
+                throw new HttpException(
+                    HttpURLConnection.HTTP_BAD_REQUEST,
+                    String.format(
+                        "only one '%s' HTTP header allowed",
+                        HttpRequest.KNOWN[slot]
+                    )
+                );
+            }
+        }
+    }
+
+    /**
+     * Decode the value of the header.
+     * @param idx Number of the header
+     * @return The value
+     */
+    private String value(final int idx) {
+        return new String(
+            this.head,
+            this.lines[idx * Tv.FOUR + 2],
+            this.lines[idx * Tv.FOUR + Tv.THREE] - this.lines[idx * Tv.FOUR + 2],
+            HttpRequest.LATIN
+        );
+    }
+
+    /**
+     * Encode these texts to bytes.
+     * @param texts The texts, in US-ASCII
+     * @return Bytes
+     */
+    private static byte[][] encode(final String[] texts) {
+        final byte[][] bytes = new byte[texts.length][];
+        for (int idx = 0; idx < texts.length; ++idx) {
+            bytes[idx] = texts[idx].getBytes(HttpRequest.LATIN);
+        }
+        return bytes;
+    }
+
+    /**
+     * Find the first position of the byte in the range.
+     * @param data The data
+     * @param what The byte to find
+     * @param start Start of the range
+     * @param end End of the range, exclusive
+     * @return Its position, or the end of the range if not found
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private static int find(final byte[] data, final char what,
+        final int start, final int end) {
+        int pos = start;
+        while (pos < end && data[pos] != what) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    /**
+     * Skip leading white spaces in the range.
+     * @param data The data
+     * @param start Start of the range
+     * @param end End of the range, exclusive
+     * @return Position of the first non-space byte
+     */
+    private static int skip(final byte[] data, final int start,
+        final int end) {
+        int pos = start;
+        while (pos < end && (data[pos] == ' ' || data[pos] == '\t')) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    /**
+     * Strip trailing white spaces and CR in the range.
+     * @param data The data
+     * @param start Start of the range
+     * @param end End of the range, exclusive
+     * @return New end of the range
+     */
+    private static int strip(final byte[] data, final int start,
+        final int end) {
+        int pos = end;
+        while (pos > start && (data[pos - 1] == ' ' || data[pos - 1] == '\t'
+            || data[pos - 1] == '\r')) {
+            --pos;
+        }
+        return pos;
+    }
+
+    /**
+     * Find which of the pre-encoded texts is exactly in the range.
+     * @param texts The texts to compare with, in lower case if
+     *  {@code lower} is TRUE
+     * @param lower Compare case insensitively?
+     * @param data The data
+     * @param start Start of the range
+     * @param end End of the range, exclusive
+     * @return Number of the text or -1 if none of them is there
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private static int match(final byte[][] texts, final boolean lower,
+        final byte[] data, final int start, final int end) {
+        int found = -1;
+        for (int idx = 0; idx < texts.length; ++idx) {
+            if (texts[idx].length == end - start && HttpRequest.same(
+                data, start, end, texts[idx], lower
+            )) {
+                found = idx;
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Does the range start with these bytes?
+     * @param data The data
+     * @param start Start of the range
+     * @param end End of the range, exclusive
+     * @param text The text to compare with, in lower case if
+     *  {@code lower} is TRUE
+     * @param lower Compare case insensitively?
+     * @return TRUE if the range starts with the text
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private static boolean same(final byte[] data, final int start,
+        final int end, final byte[] text, final boolean lower) {
+        boolean same = end - start >= text.length;
+        for (int idx = 0; same && idx < text.length; ++idx) {
+            byte left = data[start + idx];
+            if (lower && left >= 'A' && left <= 'Z') {
+                left += 'a' - 'A';
+            }
+            same = left == text[idx];
+        }
+        return same;
+    }
+
+    /**
+     * Is the range equal to this token, case insensitively?
+     * @param data The data
+     * @param start Start of the range
+     * @param end End of the range, exclusive
+     * @param token The token, in lower case
+     * @return TRUE if it is
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private static boolean token(final byte[] data, final int start,
+        final int end, final String token) {
+        boolean same = end - start == token.length();
+        for (int idx = 0; same && idx < token.length(); ++idx) {
+            same = Character.toLowerCase((char) data[start + idx])
+                == token.charAt(idx);
+        }
+        return same;
+    }
+
+    /**
+     * Is it a valid header name (letters, digits, dashes and underscores,
+     * starting with a letter)?
+     * @param data The data
+     * @param start Start of the range
+     * @param end End of the range, exclusive
+     * @return TRUE if it is valid
+     */
+    private static boolean name(final byte[] data, final int start,
+        final int end) {
+        final char first = (char) data[start];
+        boolean valid = first >= 'a' && first <= 'z'
+            || first >= 'A' && first <= 'Z';
+        for (int pos = start; valid && pos < end; ++pos) {
+            final char chr = (char) data[pos];
+            valid = chr >= 'a' && chr <= 'z' || chr >= 'A' && chr <= 'Z'
+                || chr >= '0' && chr <= '9' || chr == '-' || chr == '_';
+        }
+        return valid;
+    }
+
+    /**
+     * Parse decimal number in the range.
+     * @param data The data
+     * @param start Start of the range
+     * @param end End of the range, exclusive
+     * @return The number or -1 if the range is not a number
+     */
+    private static long number(final byte[] data, final int start,
+        final int end) {
+        long number = -1L;
+        // @checkstyle MagicNumber (1 line)
+        if (end > start && end - start < 19) {
+            number = 0L;
+            for (int pos = start; pos < end; ++pos) {
+                if (data[pos] < '0' || data[pos] > '9') {
+                    number = -1L;
+                    break;
+                }
+                number = number * Tv.TEN + data[pos] - '0';
             }
-            map.get(name).add(matcher.group(2));
         }
-        return map;
+        return number;
     }
 
 }
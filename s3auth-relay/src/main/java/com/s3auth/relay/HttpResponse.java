@@ -31,20 +31,25 @@ package com.s3auth.relay;
 
 import com.jcabi.aspects.Loggable;
 import com.s3auth.hosts.Resource;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.SequenceInputStream;
 import java.net.HttpURLConnection;
 import java.net.Socket;
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import javax.validation.constraints.NotNull;
+import javax.ws.rs.core.HttpHeaders;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.io.IOUtils;
 
 /**
  * HTTP response, writable to IO socket.
@@ -60,6 +65,17 @@ import org.apache.commons.httpclient.HttpStatus;
  *
  * <p>By default HTTP status is OK (200) and content is empty.
  *
+ * <p>The head of the response is rendered directly into bytes, with CRLF
+ * line endings and ISO-8859-1 encoding of header values. Status lines,
+ * names of the most popular headers (see {@link #NAMES}) and constant
+ * header lines of resources (see {@link #LINES}) are encoded once, when
+ * the class is loaded. Other constant header lines are encoded once by
+ * their users (see {@link #line(String,String)}) and added with
+ * {@link #withLine(byte[])}. Other header values are encoded as they are,
+ * without making header lines out of them. The head is not sent alone,
+ * but together with the first chunk of the body, in one write to the
+ * stream.
+ *
  * <p>The class is NOT thread-safe.
  *
  * @author Yegor Bugayenko (yegor@tpc2.com)
@@ -68,14 +84,47 @@ import org.apache.commons.httpclient.HttpStatus;
  * @see HttpThread
  */
 @ToString
-@EqualsAndHashCode(of = { "status", "hdrs", "body" })
+@EqualsAndHashCode(
+    of = { "status", "dated", "names", "values", "lines", "body", "bytes" }
+)
 @Loggable(Loggable.DEBUG)
 final class HttpResponse {
 
     /**
      * EOL.
      */
-    private static final String EOL = "\n";
+    private static final byte[] EOL = {'\r', '\n'};
+
+    /**
+     * Separator of a header name and its value.
+     */
+    private static final byte[] COLON = {':', ' '};
+
+    /**
+     * Pre-encoded status lines, with EOL, by HTTP status, or NULL for
+     * statuses unknown to us.
+     */
+    private static final byte[][] STATUSES = HttpResponse.statuses();
+
+    /**
+     * Pre-encoded names of headers we send in almost every response,
+     * together with a colon and a space after them.
+     */
+    private static final Map<String, byte[]> NAMES = HttpResponse.names(
+        "X-S3auth-Time",
+        "Keep-Alive",
+        org.apache.http.HttpHeaders.AGE,
+        org.apache.http.HttpHeaders.CONNECTION,
+        HttpHeaders.LAST_MODIFIED
+    );
+
+    /**
+     * Pre-encoded constant header lines of resources, with EOL, by the
+     * lines themselves.
+     */
+    private static final Map<String, byte[]> LINES = HttpResponse.lines(
+        "Accept-Ranges: bytes"
+    );
 
     /**
      * Status.
@@ -83,16 +132,35 @@ final class HttpResponse {
     private transient int status = HttpURLConnection.HTTP_OK;
 
     /**
-     * HTTP headers.
+     * Names of HTTP headers.
+     */
+    private final transient List<String> names = new ArrayList<String>(0);
+
+    /**
+     * Values of HTTP headers, in the same order as their names.
+     */
+    private final transient List<String> values = new ArrayList<String>(0);
+
+    /**
+     * Pre-encoded HTTP header lines.
+     */
+    private final transient List<byte[]> lines = new ArrayList<byte[]>(0);
+
+    /**
+     * Shall we send the Date header?
      */
-    private final transient ConcurrentMap<String, Collection<String>> hdrs =
-        new ConcurrentHashMap<String, Collection<String>>();
+    private transient boolean dated;
 
     /**
      * Resource to deliver.
      */
     private transient Resource body = new Resource.PlainText("");
 
+    /**
+     * Ready-made bytes of the entire response, or NULL.
+     */
+    private transient byte[] bytes;
+
     /**
      * Set HTTP status.
      * @param stts The HTTP status to set
@@ -116,8 +184,46 @@ final class HttpResponse {
      */
     public HttpResponse withHeader(final String name,
         @NotNull final String value) {
-        this.hdrs.putIfAbsent(name, new LinkedList<String>());
-        this.hdrs.get(name).add(value);
+        this.names.add(name);
+        this.values.add(value);
+        return this;
+    }
+
+    /**
+     * Add HTTP header line, encoded by {@link #line(String,String)}.
+     *
+     * <p>The line must not be a {@code Content-Length} header, since
+     * it is not parsed (see {@link #sized()}).
+     *
+     * @param line Bytes of the line, with EOL, shared by many responses
+     * @return This object
+     */
+    public HttpResponse withLine(@NotNull final byte[] line) {
+        this.lines.add(line);
+        return this;
+    }
+
+    /**
+     * Encode a constant header line, for {@link #withLine(byte[])}.
+     * @param name Name of the HTTP header
+     * @param value Text value
+     * @return Bytes of the line, with EOL
+     */
+    public static byte[] line(final String name, final String value) {
+        final HttpResponse.Gather gather = new HttpResponse.Gather(null);
+        gather.put(name);
+        gather.append(HttpResponse.COLON);
+        gather.encode(value);
+        return gather.bytes();
+    }
+
+    /**
+     * Add Date HTTP header, with the time of sending.
+     * @return This object
+     * @see HttpClock
+     */
+    public HttpResponse withDate() {
+        this.dated = true;
         return this;
     }
 
@@ -142,6 +248,50 @@ final class HttpResponse {
         return this;
     }
 
+    /**
+     * Send these ready-made bytes instead of the response.
+     *
+     * <p>Everything else set before or after is ignored, and the connection
+     * is closed after the bytes are sent (see {@link #sized()}), that's why
+     * they should have {@code Connection: close} header.
+     *
+     * @param data Bytes of the entire response, rendered once and shared
+     * @return This object
+     */
+    public HttpResponse withBytes(@NotNull final byte[] data) {
+        this.bytes = data;
+        return this;
+    }
+
+    /**
+     * Is the length of the body known to the client, so that the next
+     * response can be sent through the same connection?
+     * @return TRUE if it has {@code Content-Length} or no body at all,
+     *  and it's not made of ready-made bytes
+     * @throws IOException If fails to get headers of the body
+     */
+    public boolean sized() throws IOException {
+        boolean sized = this.status == HttpURLConnection.HTTP_NOT_MODIFIED
+            || this.status == HttpURLConnection.HTTP_NO_CONTENT;
+        for (final String name : this.names) {
+            sized |= HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+        for (final String hdr : this.body.headers()) {
+            sized |= HttpResponse.named(hdr, HttpHeaders.CONTENT_LENGTH);
+        }
+        return sized && this.bytes == null;
+    }
+
+    /**
+     * Release the body, which is not going to be sent, if it holds
+     * anything (it does if it is {@link Closeable}).
+     */
+    public void release() {
+        if (this.body instanceof Closeable) {
+            IOUtils.closeQuietly(Closeable.class.cast(this.body));
+        }
+    }
+
     /**
      * Send it to the socket.
      * @param socket The socket to write to
@@ -152,34 +302,301 @@ final class HttpResponse {
     @Loggable(value = Loggable.DEBUG, limit = Integer.MAX_VALUE)
     public long send(@NotNull final Socket socket) throws IOException {
         final OutputStream stream = socket.getOutputStream();
-        final Writer writer = new OutputStreamWriter(stream);
-        writer.write(
-            String.format(
-                "HTTP/1.1 %d %s%s",
-                this.status,
-                HttpStatus.getStatusText(this.status),
-                HttpResponse.EOL
-            )
+        final long sent = this.send(stream);
+        stream.close();
+        return sent;
+    }
+
+    /**
+     * Send it to the stream, without closing it.
+     * @param stream The stream to write to
+     * @return How many bytes were actually sent
+     * @throws IOException If some IO problem inside
+     */
+    @Loggable(value = Loggable.DEBUG, limit = Integer.MAX_VALUE)
+    public long send(@NotNull final OutputStream stream) throws IOException {
+        final long sent;
+        if (this.bytes == null) {
+            sent = this.render(stream);
+        } else {
+            stream.write(this.bytes);
+            stream.flush();
+            sent = (long) this.bytes.length;
+        }
+        return sent;
+    }
+
+    /**
+     * Open it for reading, instead of sending it, so that the reader
+     * decides when to take the next bytes of the body (see
+     * {@link Resource#content()}).
+     * @return The stream with the head and the body, to be closed
+     *  by the reader
+     * @throws IOException If some IO problem inside
+     */
+    public InputStream open() throws IOException {
+        final InputStream stream;
+        if (this.bytes == null) {
+            final HttpResponse.Gather gather = new HttpResponse.Gather(null);
+            this.head(gather);
+            stream = new SequenceInputStream(
+                new ByteArrayInputStream(gather.bytes()),
+                this.body.content()
+            );
+        } else {
+            stream = new ByteArrayInputStream(this.bytes);
+        }
+        return stream;
+    }
+
+    /**
+     * Render the head and the body into the stream.
+     * @param stream The stream to write to
+     * @return How many bytes of the body were sent
+     * @throws IOException If some IO problem inside
+     */
+    private long render(final OutputStream stream) throws IOException {
+        final HttpResponse.Gather gather = new HttpResponse.Gather(stream);
+        this.head(gather);
+        final long sent = this.body.writeTo(gather);
+        gather.flush();
+        return sent;
+    }
+
+    /**
+     * Render the head, with the empty line after it.
+     * @param gather Where to render it
+     * @throws IOException If fails to get headers of the body
+     */
+    private void head(final HttpResponse.Gather gather) throws IOException {
+        byte[] line = null;
+        if (this.status < HttpResponse.STATUSES.length) {
+            line = HttpResponse.STATUSES[this.status];
+        }
+        if (line == null) {
+            line = HttpResponse.status(this.status);
+        }
+        gather.append(line);
+        for (final byte[] ready : this.lines) {
+            gather.append(ready);
+        }
+        if (this.dated) {
+            gather.append(HttpClock.SYSTEM.line());
+        }
+        for (int idx = 0; idx < this.names.size(); ++idx) {
+            gather.header(this.names.get(idx), this.values.get(idx));
+        }
+        for (final String hdr : this.body.headers()) {
+            final byte[] ready = HttpResponse.LINES.get(hdr);
+            if (ready == null) {
+                gather.encode(hdr);
+            } else {
+                gather.append(ready);
+            }
+        }
+        gather.append(HttpResponse.EOL);
+    }
+
+    /**
+     * Does this header line have the given name?
+     * @param line The header line
+     * @param name Name of the header
+     * @return TRUE if it does
+     */
+    private static boolean named(final String line, final String name) {
+        return line.length() > name.length()
+            && line.charAt(name.length()) == ':'
+            && line.regionMatches(true, 0, name, 0, name.length());
+    }
+
+    /**
+     * Encode a status line.
+     * @param code HTTP status
+     * @return Status line, with EOL
+     */
+    private static byte[] status(final int code) {
+        final HttpResponse.Gather gather = new HttpResponse.Gather(null);
+        gather.encode(
+            new StringBuilder("HTTP/1.1 ")
+                .append(code)
+                .append(' ')
+                .append(HttpStatus.getStatusText(code))
+                .toString()
         );
-        for (final ConcurrentMap.Entry<String, Collection<String>> hdr
-            : this.hdrs.entrySet()) {
-            for (final String value : hdr.getValue()) {
-                writer.write(hdr.getKey());
-                writer.write(": ");
-                writer.write(value);
-                writer.write(HttpResponse.EOL);
+        return gather.bytes();
+    }
+
+    /**
+     * Encode all status lines we know about.
+     * @return Status lines, with EOL, by HTTP status
+     */
+    private static byte[][] statuses() {
+        // @checkstyle MagicNumber (1 line)
+        final byte[][] lines = new byte[600][];
+        for (int code = 0; code < lines.length; ++code) {
+            if (HttpStatus.getStatusText(code) != null) {
+                lines[code] = HttpResponse.status(code);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Encode header names.
+     * @param texts Header names
+     * @return Map of header names to their bytes, with a colon and a space
+     */
+    private static Map<String, byte[]> names(final String... texts) {
+        final Map<String, byte[]> map =
+            new HashMap<String, byte[]>(texts.length << 1);
+        for (final String text : texts) {
+            final HttpResponse.Gather gather = new HttpResponse.Gather(null);
+            gather.put(text);
+            gather.append(HttpResponse.COLON);
+            map.put(text, gather.bytes());
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Encode constant header lines.
+     * @param texts Header lines
+     * @return Map of header lines to their bytes, with EOL
+     */
+    private static Map<String, byte[]> lines(final String... texts) {
+        final Map<String, byte[]> map =
+            new HashMap<String, byte[]>(texts.length << 1);
+        for (final String text : texts) {
+            final HttpResponse.Gather gather = new HttpResponse.Gather(null);
+            gather.encode(text);
+            map.put(text, gather.bytes());
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Stream that sends the head together with the first chunk of the body.
+     */
+    private static final class Gather extends OutputStream {
+        /**
+         * Initial capacity of the buffer.
+         */
+        private static final int INITIAL = 512;
+        /**
+         * Original stream.
+         */
+        private final transient OutputStream origin;
+        /**
+         * Bytes of the head not sent yet, or NULL if already sent.
+         */
+        private transient byte[] buffer = new byte[HttpResponse.Gather.INITIAL];
+        /**
+         * How many bytes of the buffer are used.
+         */
+        private transient int size;
+        /**
+         * Public ctor.
+         * @param stream Original stream
+         */
+        Gather(final OutputStream stream) {
+            super();
+            this.origin = stream;
+        }
+        /**
+         * Append these bytes to the head.
+         * @param data The bytes
+         */
+        public void append(final byte[] data) {
+            this.grow(data.length);
+            System.arraycopy(data, 0, this.buffer, this.size, data.length);
+            this.size += data.length;
+        }
+        /**
+         * Append a header to the head, adding EOL.
+         * @param name Name of the header
+         * @param value Its value
+         */
+        public void header(final String name, final String value) {
+            final byte[] ready = HttpResponse.NAMES.get(name);
+            if (ready == null) {
+                this.put(name);
+                this.append(HttpResponse.COLON);
+            } else {
+                this.append(ready);
+            }
+            this.encode(value);
+        }
+        /**
+         * Encode a line into the head, adding EOL.
+         * @param line The line
+         */
+        public void encode(final String line) {
+            this.put(line);
+            this.append(HttpResponse.EOL);
+        }
+        /**
+         * Encode a text into the head.
+         * @param text The text
+         */
+        public void put(final String text) {
+            final int len = text.length();
+            this.grow(len);
+            for (int pos = 0; pos < len; ++pos) {
+                final char chr = text.charAt(pos);
+                if (chr > 0xff) {
+                    this.buffer[this.size] = '?';
+                } else {
+                    this.buffer[this.size] = (byte) chr;
+                }
+                ++this.size;
+            }
+        }
+        /**
+         * Get all bytes of the head.
+         * @return The bytes
+         */
+        public byte[] bytes() {
+            final byte[] data = new byte[this.size];
+            System.arraycopy(this.buffer, 0, data, 0, this.size);
+            return data;
+        }
+        @Override
+        public void write(final int data) throws IOException {
+            this.write(new byte[] {(byte) data}, 0, 1);
+        }
+        @Override
+        public void write(final byte[] data, final int off, final int len)
+            throws IOException {
+            if (this.buffer == null) {
+                this.origin.write(data, off, len);
+            } else {
+                this.grow(len);
+                System.arraycopy(data, off, this.buffer, this.size, len);
+                this.size += len;
+                this.flush();
+            }
+        }
+        @Override
+        public void flush() throws IOException {
+            if (this.buffer != null) {
+                this.origin.write(this.buffer, 0, this.size);
+                this.buffer = null;
+            }
+            this.origin.flush();
+        }
+        /**
+         * Make sure the buffer can take that many more bytes.
+         * @param more How many bytes to add
+         */
+        private void grow(final int more) {
+            if (this.size + more > this.buffer.length) {
+                final byte[] bigger = new byte[
+                    Math.max(this.size + more, this.buffer.length << 1)
+                ];
+                System.arraycopy(this.buffer, 0, bigger, 0, this.size);
+                this.buffer = bigger;
             }
         }
-        for (final String hdr : this.body.headers()) {
-            writer.write(hdr);
-            writer.write(HttpResponse.EOL);
-        }
-        writer.write(HttpResponse.EOL);
-        writer.flush();
-        long bytes = 0L;
-        bytes += this.body.writeTo(stream);
-        writer.close();
-        return bytes;
     }
 
 }
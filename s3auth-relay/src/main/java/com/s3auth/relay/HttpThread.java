@@ -30,33 +30,46 @@
 package com.s3auth.relay;
 
 import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
 import com.jcabi.log.Logger;
+import com.jcabi.log.VerboseThreads;
 import com.jcabi.manifests.Manifests;
 import com.s3auth.hosts.Host;
 import com.s3auth.hosts.Hosts;
 import com.s3auth.hosts.Resource;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.Socket;
-import java.net.SocketException;
-import java.util.Collection;
-import java.util.Date;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.core.HttpHeaders;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.http.client.utils.DateUtils;
 
 /**
  * Single HTTP processing thread.
  *
- * <p>The class is responsible for getting a new socket from a blocking
- * queue, processing it, and closing the socket. The class is instantiated
- * by {@link HttpFacade} and is executed by Services Executor routinely.
+ * <p>The class is responsible for reading an HTTP request from a socket
+ * (or from a pair of streams), processing it, and writing the response
+ * back. The class is instantiated by {@link HttpFacade} and
+ * {@link NioFacade} and is executed by their Services Executors.
  *
  * <p>The class is thread-safe.
  *
@@ -66,15 +79,25 @@ import org.apache.http.client.utils.DateUtils;
  * @see HttpFacade
  */
 @ToString
-@EqualsAndHashCode(of = { "hosts", "sockets" })
-@SuppressWarnings({ "PMD.DoNotUseThreads", "PMD.UseConcurrentHashMap" })
+@EqualsAndHashCode(of = "hosts")
+@SuppressWarnings("PMD.DoNotUseThreads")
 @Loggable(Loggable.DEBUG)
-final class HttpThread {
+final class HttpThread implements Closeable {
+
+    /**
+     * Default idle timeout of a persistent connection, in seconds.
+     */
+    public static final int IDLE = Tv.FIFTEEN;
+
+    /**
+     * Default maximum number of requests per persistent connection.
+     */
+    public static final int REQUESTS = Tv.HUNDRED;
 
     /**
      * Name of the server we show in HTTP headers.
      */
-    private static final String NAME = String.format(
+    static final String NAME = String.format(
         "relay.s3auth.com, %s/%s built on %s",
         Manifests.read("S3Auth-Version"),
         Manifests.read("S3Auth-Revision"),
@@ -82,49 +105,435 @@ final class HttpThread {
     );
 
     /**
-     * Queue of sockets to get from.
+     * Server HTTP header line, encoded once.
      */
-    private final transient BlockingQueue<Socket> sockets;
+    private static final byte[] SERVER = HttpResponse.line(
+        "Server", HttpThread.NAME
+    );
+
+    /**
+     * Maximum number of pipelined requests prepared in advance.
+     */
+    private static final int DEPTH = Tv.EIGHT;
+
+    /**
+     * How long to sleep between attempts to take a permit, in msec.
+     */
+    private static final long PAUSE = Tv.TEN;
+
+    /**
+     * Maximum number of threads preparing responses to pipelined requests,
+     * shared by all connections.
+     */
+    private static final int PREFETCHERS =
+        Runtime.getRuntime().availableProcessors() * Tv.TEN;
+
+    /**
+     * Response to a request for an unknown host, rendered once and shared
+     * by all such responses.
+     */
+    private static final byte[] UNKNOWN = HttpThread.unknown();
 
     /**
      * Hosts to work with.
      */
     private final transient Hosts hosts;
 
+    /**
+     * Executor service, preparing responses to pipelined requests.
+     */
+    private final transient ThreadPoolExecutor prefetch =
+        HttpThread.prefetcher();
+
+    /**
+     * Deadlines of connections.
+     */
+    private final transient Deadlines deadlines;
+
+    /**
+     * Maximum number of requests per connection.
+     */
+    private final transient int requests;
+
+    /**
+     * Value of Keep-Alive HTTP header.
+     */
+    private final transient String keep;
+
+    /**
+     * Admission, which is told about latency of requests.
+     */
+    private final transient Admission admission;
+
+    /**
+     * Public ctor.
+     * @param hsts Hosts
+     */
+    HttpThread(@NotNull final Hosts hsts) {
+        this(hsts, HttpThread.IDLE, HttpThread.REQUESTS);
+    }
+
+    /**
+     * Public ctor.
+     * @param hsts Hosts
+     * @param timeout Idle timeout of a persistent connection, in seconds
+     * @param max Maximum number of requests per connection
+     */
+    HttpThread(@NotNull final Hosts hsts, final int timeout, final int max) {
+        this(hsts, timeout, max, new Admission(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Public ctor.
+     * @param hsts Hosts
+     * @param timeout Idle timeout of a persistent connection, in seconds
+     * @param max Maximum number of requests per connection
+     * @param adm Admission to report latency of requests to
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    HttpThread(@NotNull final Hosts hsts, final int timeout, final int max,
+        @NotNull final Admission adm) {
+        this(
+            hsts, timeout, max, adm,
+            new Deadlines(TimeUnit.SECONDS.toMillis((long) timeout))
+        );
+    }
+
     /**
      * Public ctor.
-     * @param sckts Sockets to read from
      * @param hsts Hosts
+     * @param timeout Idle timeout of a persistent connection, in seconds
+     * @param max Maximum number of requests per connection
+     * @param adm Admission to report latency of requests to
+     * @param dlns Deadlines of connections, closed together with this object
+     * @checkstyle ParameterNumber (4 lines)
      */
-    HttpThread(@NotNull final BlockingQueue<Socket> sckts,
-        @NotNull final Hosts hsts) {
-        this.sockets = sckts;
+    HttpThread(@NotNull final Hosts hsts, final int timeout, final int max,
+        @NotNull final Admission adm, @NotNull final Deadlines dlns) {
         this.hosts = hsts;
+        this.admission = adm;
+        this.deadlines = dlns;
+        this.requests = max;
+        this.keep = String.format("timeout=%d, max=%d", timeout, max);
     }
 
     /**
-     * Dispatch one request from the encapsulated queue.
+     * Dispatch requests from the socket and close it afterwards.
+     *
+     * <p>The connection is kept alive (see RFC 2616, section 8.1) until
+     * the client asks to close it, or stays idle longer than the timeout,
+     * or the maximum number of requests is served through it, or the
+     * length of a response body is unknown. The socket is also closed
+     * when the client is too slow sending a request or reading a response
+     * (see {@link Deadlines}).
+     *
+     * <p>Requests may be pipelined by the client (RFC 2616, section
+     * 8.1.2.2). Before sending a response we read all request heads that
+     * have already arrived (up to {@link #DEPTH} of them) and start
+     * fetching their resources in the background, while responses are
+     * sent strictly in the order of requests. A request is prepared in
+     * the background only when a prefetching thread is free (there are
+     * at most {@link #PREFETCHERS} of them) and {@link Admission} gives
+     * a permit for it. Otherwise it is prepared by the connection thread,
+     * when its turn comes. Responses prepared but not sent, because the
+     * connection is broken, are released (see
+     * {@link HttpResponse#release()}).
+     *
+     * <p>The caller holds a permit of {@link Admission} for the first
+     * request on the connection. The permit is released as soon as all
+     * requests received are answered, and is taken again when the next
+     * request arrives, so that an idle connection holds no permit. If
+     * the permit is not given in {@link HttpFacade#WAIT} milliseconds,
+     * the client gets a ready-made HTTP 503 response (see
+     * {@link HttpFacade#BUSY}) and the connection is closed.
+     *
+     * @param socket The socket to read from and write to
+     * @param adm Admission, which gave a permit for the first request
      * @return Amount of bytes sent to socket
-     * @throws InterruptedException If interrupted while waiting for the queue
      */
     @Loggable(value = Loggable.DEBUG, limit = Integer.MAX_VALUE)
-    @SuppressWarnings("PMD.AvoidCatchingThrowable")
-    public long dispatch() throws InterruptedException {
-        final Socket socket = this.sockets.take();
+    public long dispatch(@NotNull final Socket socket,
+        @NotNull final Admission adm) {
+        final Deadlines.Deadline deadline = this.deadlines.watch(socket);
+        final CountingOutputStream output;
+        try {
+            output = new CountingOutputStream(
+                deadline.watch(socket.getOutputStream())
+            );
+        } catch (final IOException ex) {
+            Logger.warn(this, "#dispatch(): %s", ex);
+            IOUtils.closeQuietly(socket);
+            adm.release();
+            return 0L;
+        }
+        final Deque<HttpThread.Exchange> queue =
+            new LinkedList<HttpThread.Exchange>();
+        boolean permitted = true;
+        try {
+            final HttpInput input = new HttpInput(
+                socket.getInputStream(), deadline
+            );
+            int left = this.requests;
+            boolean alive = true;
+            while (alive) {
+                if (queue.isEmpty()) {
+                    if (!input.more()) {
+                        break;
+                    }
+                    if (!permitted) {
+                        permitted = HttpThread.permit(adm);
+                    }
+                    if (!permitted) {
+                        output.write(HttpFacade.BUSY);
+                        break;
+                    }
+                    --left;
+                    queue.add(this.read(input, left == 0, false));
+                }
+                while (left > 0 && queue.size() < HttpThread.DEPTH
+                    && queue.getLast().pipelined() && input.ready()) {
+                    --left;
+                    queue.add(this.read(input, left == 0, true));
+                }
+                alive = this.respond(queue.poll(), output);
+                if (queue.isEmpty()) {
+                    adm.release();
+                    permitted = false;
+                }
+            }
+        } catch (final IOException ex) {
+            if (deadline.expired()) {
+                Logger.debug(this, "#dispatch(): deadline expired, %s", ex);
+            } else {
+                Logger.warn(this, "#dispatch(): %s", ex);
+            }
+        } finally {
+            if (permitted) {
+                adm.release();
+            }
+            deadline.disarm();
+            for (final HttpThread.Exchange exchange : queue) {
+                exchange.cancel();
+            }
+            IOUtils.closeQuietly(socket);
+        }
+        return output.getByteCount();
+    }
+
+    /**
+     * Read one request from the input stream and write a response
+     * to the output stream (none of them are closed here). The response
+     * always asks the client to close the connection afterwards.
+     * @param input Stream to read the HTTP request from
+     * @param output Stream to write the HTTP response to
+     * @return Amount of bytes sent to the output stream
+     */
+    public long serve(@NotNull final InputStream input,
+        @NotNull final OutputStream output) {
+        final CountingOutputStream counter = new CountingOutputStream(output);
+        try {
+            this.prepare(input).send(counter);
+        } catch (final IOException ex) {
+            Logger.warn(this, "#serve(): %s", ex);
+        }
+        return counter.getByteCount();
+    }
+
+    /**
+     * Read one request from the input stream (not closed here) and
+     * prepare a response, which asks the client to close the connection
+     * afterwards.
+     * @param input Stream to read the HTTP request from
+     * @return The response, to be sent or released by the caller
+     * @throws IOException If fails to read
+     */
+    public HttpResponse prepare(@NotNull final InputStream input)
+        throws IOException {
+        return this.read(new HttpInput(input), true, false).response()
+            .withHeader(org.apache.http.HttpHeaders.CONNECTION, "close");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            HttpFacade.shutdown(this.prefetch);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        this.deadlines.close();
+    }
+
+    /**
+     * Take a permit for the next request on a connection, retrying
+     * every {@link #PAUSE} milliseconds during {@link HttpFacade#WAIT}.
+     * @param adm Admission to take it from
+     * @return TRUE if taken
+     * @throws IOException If interrupted while waiting
+     */
+    private static boolean permit(final Admission adm) throws IOException {
+        final long start = System.currentTimeMillis();
+        boolean taken = adm.acquire();
+        while (!taken
+            && System.currentTimeMillis() - start < HttpFacade.WAIT) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(HttpThread.PAUSE);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(ex.getMessage());
+            }
+            taken = adm.acquire();
+        }
+        return taken;
+    }
+
+    /**
+     * Read one request and start preparing a response for it.
+     * @param input Input to read the HTTP request from
+     * @param last It is the last request on this connection
+     * @param background Prepare the response in background, even if
+     *  no more requests are pipelined after this one?
+     * @return The exchange
+     * @throws IOException If fails to read
+     */
+    private HttpThread.Exchange read(final HttpInput input,
+        final boolean last, final boolean background) throws IOException {
         final long start = System.currentTimeMillis();
-        long bytes;
+        HttpThread.Exchange exchange;
+        try {
+            final HttpRequest request = new HttpRequest(input);
+            final Callable<HttpResponse> callable =
+                new Callable<HttpResponse>() {
+                    @Override
+                    public HttpResponse call() {
+                        return HttpThread.this.response(request, start);
+                    }
+                };
+            final RunnableFuture<HttpResponse> task;
+            if ((background || input.ready()) && this.admission.acquire()) {
+                task = this.prefetched(callable);
+            } else {
+                task = new FutureTask<HttpResponse>(callable);
+            }
+            exchange = new HttpThread.Exchange(request, task, last);
+        } catch (final HttpException ex) {
+            final FutureTask<HttpResponse> task = new FutureTask<HttpResponse>(
+                new Callable<HttpResponse>() {
+                    @Override
+                    public HttpResponse call() {
+                        return ex.response();
+                    }
+                }
+            );
+            exchange = new HttpThread.Exchange(null, task, true);
+        }
+        return exchange;
+    }
+
+    /**
+     * Start preparing a response in the background, with a permit of
+     * {@link Admission} taken, which is released when it is done or
+     * cancelled.
+     * @param callable Preparation of the response
+     * @return The task, which is run by the connection thread, if there
+     *  are no free prefetching threads
+     */
+    private RunnableFuture<HttpResponse> prefetched(
+        final Callable<HttpResponse> callable) {
+        final RunnableFuture<HttpResponse> task =
+            new FutureTask<HttpResponse>(callable) {
+                @Override
+                protected void done() {
+                    HttpThread.this.admission.release();
+                }
+            };
+        try {
+            this.prefetch.execute(task);
+        } catch (final RejectedExecutionException ex) {
+            Logger.debug(this, "#prefetched(): no free threads, %s", ex);
+        }
+        return task;
+    }
+
+    /**
+     * Make an executor of prefetching threads.
+     * @return Executor, which rejects tasks when all threads are busy
+     */
+    private static ThreadPoolExecutor prefetcher() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            HttpThread.PREFETCHERS, HttpThread.PREFETCHERS,
+            1L, TimeUnit.MINUTES,
+            new SynchronousQueue<Runnable>(),
+            new VerboseThreads("prefetch")
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Render the response to requests for unknown hosts.
+     * @return Bytes of HTTP response
+     */
+    private static byte[] unknown() {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try {
+            new HttpResponse()
+                .withStatus(HttpURLConnection.HTTP_NOT_FOUND)
+                .withLine(HttpThread.SERVER)
+                .withHeader(org.apache.http.HttpHeaders.CONNECTION, "close")
+                .withBody(
+                    // @checkstyle LineLength (1 line)
+                    "host not found, register it at www.s3auth.com and wait for 10 minutes"
+                )
+                .send(stream);
+        } catch (final IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * Wait for the response to be prepared and write it.
+     * @param exchange The exchange to complete
+     * @param output Stream to write the HTTP response to
+     * @return TRUE if the connection should be kept alive
+     * @throws IOException If fails to write
+     */
+    private boolean respond(final HttpThread.Exchange exchange,
+        final OutputStream output) throws IOException {
+        final HttpResponse response = exchange.response();
+        final boolean alive = exchange.pipelined() && response.sized();
+        if (alive) {
+            response.withHeader(
+                org.apache.http.HttpHeaders.CONNECTION, "keep-alive"
+            ).withHeader(
+                "Keep-Alive", this.keep
+            );
+        } else {
+            response.withHeader(
+                org.apache.http.HttpHeaders.CONNECTION, "close"
+            );
+        }
+        response.send(output);
+        return alive;
+    }
+
+    /**
+     * Make a response for the request.
+     * @param request The request
+     * @param start When the request processing started, in millis
+     * @return The response
+     */
+    @SuppressWarnings("PMD.AvoidCatchingThrowable")
+    private HttpResponse response(final HttpRequest request,
+        final long start) {
+        final long begin = System.nanoTime();
+        HttpResponse response;
         try {
-            final HttpRequest request = new HttpRequest(socket);
             if ("GET".equals(request.method())) {
-                HttpResponse response = new HttpResponse()
-                    .withHeader("Server", HttpThread.NAME)
-                    .withHeader(
-                        HttpHeaders.DATE,
-                        String.format(
-                            "%ta, %1$td %1$tb %1$tY %1$tT %1$tz",
-                            new Date()
-                        )
-                    )
+                response = new HttpResponse()
+                    .withLine(HttpThread.SERVER)
+                    .withDate()
                     .withHeader(
                         "X-S3auth-Time",
                         Long.toString(System.currentTimeMillis() - start)
@@ -142,41 +551,35 @@ final class HttpThread {
                 if (resource.lastModified() != null) {
                     response = response.withHeader(
                         HttpHeaders.LAST_MODIFIED,
-                        DateUtils.formatDate(resource.lastModified())
+                        HttpClock.SYSTEM.format(resource.lastModified())
                     );
                 }
-                bytes = response.withBody(resource).send(socket);
+                response = response.withBody(resource);
             } else {
-                bytes = HttpThread.failure(
-                    new HttpException(
-                        HttpURLConnection.HTTP_BAD_METHOD,
-                        "only GET method is supported at the moment"
-                    ),
-                    socket
-                );
+                response = new HttpException(
+                    HttpURLConnection.HTTP_BAD_METHOD,
+                    "only GET method is supported at the moment"
+                ).response();
             }
         } catch (final HttpException ex) {
-            bytes = HttpThread.failure(ex, socket);
-        } catch (final SocketException ex) {
-            Logger.warn(this, "#run(): %s", ex);
-            bytes = 0L;
+            response = ex.response();
         // @checkstyle IllegalCatch (1 line)
         } catch (final Throwable ex) {
-            bytes = HttpThread.failure(
-                new HttpException(
-                    HttpURLConnection.HTTP_INTERNAL_ERROR,
-                    ex
-                ),
-                socket
-            );
-        } finally {
-            IOUtils.closeQuietly(socket);
+            response = new HttpException(
+                HttpURLConnection.HTTP_INTERNAL_ERROR,
+                ex
+            ).response();
         }
-        return bytes;
+        this.admission.sample(System.nanoTime() - begin);
+        return response;
     }
 
     /**
      * Make a resource from host and request.
+     *
+     * <p>If the resource is not modified, it is closed (if it is
+     * {@link Closeable}), since its content is not going to be written.
+     *
      * @param host The host
      * @param request HTTP request
      * @return The resource
@@ -187,24 +590,39 @@ final class HttpThread {
         final Resource resource = host.fetch(
             request.requestUri(), request.range()
         );
-        if (request.headers().containsKey(HttpHeaders.IF_NONE_MATCH)) {
-            final String etag = request.headers()
-                .get(HttpHeaders.IF_NONE_MATCH)
-                .iterator().next();
-            if (etag.equals(resource.etag())) {
-                throw new HttpException(HttpURLConnection.HTTP_NOT_MODIFIED);
+        final String etag = request.header(HttpHeaders.IF_NONE_MATCH);
+        final String since = request.header(HttpHeaders.IF_MODIFIED_SINCE);
+        if (etag != null && etag.equals(resource.etag())
+            || since != null
+            && resource.lastModified().before(DateUtils.parseDate(since))) {
+            if (resource instanceof Closeable) {
+                IOUtils.closeQuietly(Closeable.class.cast(resource));
             }
+            throw new HttpException(HttpURLConnection.HTTP_NOT_MODIFIED);
         }
-        if (request.headers().containsKey(HttpHeaders.IF_MODIFIED_SINCE)) {
-            final Date since = DateUtils.parseDate(
-                request.headers().get(HttpHeaders.IF_MODIFIED_SINCE)
-                    .iterator().next()
+        return resource;
+    }
+
+    /**
+     * Statistics of the relay, for {@link LocalHost}.
+     * @return Text with admission limits and expired deadlines
+     */
+    private String stats() {
+        final StringBuilder text = new StringBuilder(
+            String.format(
+                "admission limit: %d of %d\n",
+                this.admission.limit(), this.admission.max()
+            )
+        );
+        for (final Deadlines.Kind kind : Deadlines.Kind.values()) {
+            text.append(
+                String.format(
+                    "expired %s deadlines: %d\n",
+                    kind, this.deadlines.expired(kind)
+                )
             );
-            if (resource.lastModified().before(since)) {
-                throw new HttpException(HttpURLConnection.HTTP_NOT_MODIFIED);
-            }
         }
-        return resource;
+        return text.toString();
     }
 
     /**
@@ -214,8 +632,8 @@ final class HttpThread {
      * @throws HttpException If some error inside
      */
     private Host host(final HttpRequest request) throws HttpException {
-        final Map<String, Collection<String>> headers = request.headers();
-        if (!headers.containsKey(HttpHeaders.HOST)) {
+        final String domain = request.header(HttpHeaders.HOST);
+        if (domain == null) {
             throw new HttpException(
                 HttpURLConnection.HTTP_BAD_REQUEST,
                 String.format(
@@ -224,26 +642,15 @@ final class HttpThread {
                 )
             );
         }
-        if (headers.get(HttpHeaders.HOST).size() != 1) {
-            throw new HttpException(
-                HttpURLConnection.HTTP_BAD_REQUEST,
-                String.format(
-                    "only one '%s' HTTP header allowed",
-                    HttpHeaders.HOST
-                )
-            );
-        }
-        final String domain = headers.get(HttpHeaders.HOST).iterator().next();
         final Host host;
         if (LocalHost.isIt(domain)) {
-            host = new LocalHost();
+            host = new LocalHost(this.stats());
         } else {
             try {
                 host = new SecuredHost(this.hosts.find(domain), request);
             } catch (final Hosts.NotFoundException ex) {
                 throw new HttpException(
-                    HttpURLConnection.HTTP_NOT_FOUND,
-                    ex
+                    new HttpResponse().withBytes(HttpThread.UNKNOWN)
                 );
             } catch (final IOException ex) {
                 throw new HttpException(
@@ -256,17 +663,71 @@ final class HttpThread {
     }
 
     /**
-     * Send failure to the socket.
-     * @param cause The problem
-     * @param socket The socket to talk to
-     * @return Number of bytes sent
+     * Request read from a connection, and its response being prepared.
      */
-    private static long failure(final HttpException cause,
-        final Socket socket) {
-        try {
-            return cause.response().send(socket);
-        } catch (final IOException ex) {
-            throw new IllegalStateException(ex);
+    private static final class Exchange {
+        /**
+         * The request, or NULL if it is broken.
+         */
+        private final transient HttpRequest request;
+        /**
+         * The response.
+         */
+        private final transient RunnableFuture<HttpResponse> future;
+        /**
+         * Is it the last request on the connection?
+         */
+        private final transient boolean last;
+        /**
+         * Public ctor.
+         * @param req The request
+         * @param rsp The response
+         * @param lst Is it the last one?
+         */
+        Exchange(final HttpRequest req, final RunnableFuture<HttpResponse> rsp,
+            final boolean lst) {
+            this.request = req;
+            this.future = rsp;
+            this.last = lst;
+        }
+        /**
+         * May the next request follow this one on the same connection?
+         * @return TRUE if the connection may persist after this exchange
+         */
+        public boolean pipelined() {
+            return !this.last && this.request != null
+                && this.request.persistent();
+        }
+        /**
+         * Wait for the response, preparing it here, if nobody started
+         * preparing it yet.
+         * @return The response
+         * @throws IOException If interrupted
+         */
+        public HttpResponse response() throws IOException {
+            this.future.run();
+            try {
+                return this.future.get();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(ex.getMessage());
+            } catch (final ExecutionException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        /**
+         * Cancel it, or release the response, if it is already prepared.
+         */
+        public void cancel() {
+            if (!this.future.cancel(true)) {
+                try {
+                    this.future.get().release();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (final ExecutionException ex) {
+                    Logger.warn(this, "#cancel(): %s", ex);
+                }
+            }
         }
     }
 
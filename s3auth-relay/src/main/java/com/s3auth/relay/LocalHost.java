@@ -51,6 +51,9 @@ import lombok.EqualsAndHashCode;
  * {@link HttpThread} according to the information in {@code "Host"}
  * HTTP header.
  *
+ * <p>Besides the home page and the version, it renders statistics of
+ * the relay at {@code /stats}, as they were when the request arrived.
+ *
  * @author Yegor Bugayenko (yegor@tpc2.com)
  * @version $Id$
  * @since 0.0.1
@@ -69,6 +72,26 @@ final class LocalHost implements Host {
         Manifests.read("S3Auth-ExitKey")
     );
 
+    /**
+     * Statistics of the relay, in plain text.
+     */
+    private final transient String stats;
+
+    /**
+     * Public ctor.
+     */
+    LocalHost() {
+        this("");
+    }
+
+    /**
+     * Public ctor.
+     * @param sts Statistics of the relay, in plain text
+     */
+    LocalHost(@NotNull final String sts) {
+        this.stats = sts;
+    }
+
     /**
      * Is it your name?
      * @param name The name of host, provided in "Host" HTTP header
@@ -89,6 +112,8 @@ final class LocalHost implements Host {
             output = "see www.s3auth.com";
         } else if ("/version".equals(uri.toString())) {
             output = Manifests.read("S3Auth-Revision");
+        } else if ("/stats".equals(uri.toString())) {
+            output = this.stats;
         } else {
             throw new HttpException(
                 HttpURLConnection.HTTP_NOT_FOUND,
@@ -36,6 +36,7 @@ import com.s3auth.hosts.DynamoHosts;
 import java.util.concurrent.TimeUnit;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 
@@ -66,10 +67,54 @@ public final class Main {
      */
     public static void main(final String[] args) throws Exception {
         final OptionParser parser = new OptionParser("p:d");
+        parser.accepts("nio", "use experimental non-blocking NIO transport");
+        final OptionSpec<Integer> idle = parser
+            .accepts("idle", "keep-alive timeout of a connection, in seconds")
+            .withRequiredArg().ofType(Integer.class)
+            .defaultsTo(HttpThread.IDLE);
+        final OptionSpec<Integer> requests = parser
+            .accepts("requests", "maximum number of requests per connection")
+            .withRequiredArg().ofType(Integer.class)
+            .defaultsTo(HttpThread.REQUESTS);
+        final OptionSpec<Integer> shards = parser
+            .accepts(
+                "shards",
+                "number of threads accepting connections (or event loops)"
+            )
+            .withRequiredArg().ofType(Integer.class)
+            .defaultsTo(HttpFacade.SHARDS);
         final OptionSet options = parser.parse(args);
         final int port = Integer.valueOf(options.valueOf("p").toString());
-        final HttpFacade facade = new HttpFacade(new DynamoHosts(), port);
-        facade.listen();
+        if (options.has("nio")) {
+            if (options.has(idle) || options.has(requests)) {
+                throw new IllegalArgumentException(
+                    // @checkstyle LineLength (1 line)
+                    "--idle and --requests are not supported with --nio, it has no keep-alive"
+                );
+            }
+            new NioFacade(
+                new DynamoHosts(),
+                port,
+                new Deadlines(
+                    TimeUnit.SECONDS.toMillis((long) HttpThread.IDLE)
+                ),
+                new Admission(HttpFacade.BUDGET),
+                options.valueOf(shards)
+            ).listen();
+        } else {
+            final Admission admission = new Admission(HttpFacade.BUDGET);
+            new HttpFacade(
+                new HttpThread(
+                    new DynamoHosts(),
+                    options.valueOf(idle),
+                    options.valueOf(requests),
+                    admission
+                ),
+                port,
+                admission,
+                options.valueOf(shards)
+            ).listen();
+        }
         Logger.warn(Main.class, "started at http://localhost:%d...", port);
         if (options.has("d")) {
             while (true) {
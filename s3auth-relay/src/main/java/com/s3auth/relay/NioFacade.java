@@ -0,0 +1,921 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.relay;
+
+import com.jcabi.aspects.Loggable;
+import com.jcabi.aspects.Tv;
+import com.jcabi.log.Logger;
+import com.jcabi.log.VerboseRunnable;
+import com.jcabi.log.VerboseThreads;
+import com.s3auth.hosts.Hosts;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.validation.constraints.NotNull;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * HTTP facade (port listener) on top of non-blocking NIO selectors.
+ *
+ * <p>It is an alternative to {@link HttpFacade}. A small number of event
+ * loops accept connections, read request heads and write responses
+ * without blocking. A bounded pool of workers fetches resources from
+ * {@link Hosts} and reads responses chunk by chunk into per-connection
+ * output buffers, which event loops drain into sockets as fast as clients
+ * are able to consume them. This is how it works:
+ *
+ * <pre> Loop: accept -&gt; read head -&gt; (worker) -&gt; write -&gt; close
+ * Worker: HttpThread#prepare() -&gt; HttpResponse#open() -&gt; buffer</pre>
+ *
+ * <p>Connections that are still sending their heads don't cost any threads
+ * at all, and neither do slow clients. When more than {@link #HIGH} bytes
+ * are buffered for a connection, its worker stops reading the response
+ * (and the S3 object behind it) and returns to the pool. The event loop
+ * resumes reading in a worker, when the client consumes the buffer down
+ * to {@link #LOW} bytes.
+ *
+ * <p>Slow clients are bounded by {@link Deadlines}: a connection is closed
+ * when its request head doesn't arrive in time ({@link Deadlines.Kind#HEAD})
+ * or when the client doesn't consume its output buffer in time
+ * ({@link Deadlines.Kind#BODY}). The buffer for a request head
+ * starts small and grows up to {@link #HEAD} bytes only when needed.
+ *
+ * <p>Requests are limited by {@link Admission}, like in {@link HttpFacade}.
+ * A request is served only with a permit, which is held until its
+ * connection is closed. Without a permit, or when all workers are busy
+ * and {@link #QUEUE} tasks are already waiting for them, the client gets
+ * a ready-made HTTP 503 response (see {@link HttpFacade#BUSY}). Errors of
+ * event loops are logged, and the loops go on.
+ *
+ * <p>The transport is experimental. There is exactly one request per
+ * connection, without keep-alive and pipelining.
+ *
+ * <p>The class is instantiated in {@link Main}, once per application run,
+ * when {@code --nio} command line option is specified.
+ *
+ * <p>The class is mutable and thread-safe.
+ *
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @since 0.0.1
+ * @see Main
+ * @checkstyle ClassDataAbstractionCoupling (500 lines)
+ */
+@ToString(of = "server")
+@EqualsAndHashCode(of = "server")
+@SuppressWarnings({ "PMD.DoNotUseThreads", "PMD.TooManyMethods" })
+@Loggable(Loggable.DEBUG)
+final class NioFacade implements Closeable {
+
+    /**
+     * How many event loops to run, by default.
+     */
+    private static final int LOOPS =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * How many worker threads to use.
+     */
+    private static final int WORKERS =
+        Runtime.getRuntime().availableProcessors() * Tv.TWENTY;
+
+    /**
+     * How many tasks may wait for a free worker.
+     */
+    private static final int QUEUE = NioFacade.WORKERS * Tv.TEN;
+
+    /**
+     * Maximum size of HTTP request head, in bytes.
+     */
+    private static final int HEAD = HttpInput.MAX;
+
+    /**
+     * Initial size of the buffer for HTTP request head, in bytes.
+     */
+    private static final int FIRST = 1024;
+
+    /**
+     * Size of a chunk of a response read by a worker at once, in bytes.
+     */
+    private static final int CHUNK = 16 * 1024;
+
+    /**
+     * How long an event loop waits for events, before checking deadlines
+     * of its clients, in milliseconds.
+     */
+    private static final long PAUSE = 100L;
+
+    /**
+     * Amount of bytes buffered for a connection, above which its worker
+     * stops reading the response.
+     */
+    private static final long HIGH = 256L * 1024L;
+
+    /**
+     * Amount of bytes buffered for a connection, at or below which reading
+     * of the response is resumed.
+     */
+    private static final long LOW = 64L * 1024L;
+
+    /**
+     * Server socket channel.
+     */
+    private final transient ServerSocketChannel server;
+
+    /**
+     * Event loops.
+     */
+    private final transient NioFacade.Loop[] loops;
+
+    /**
+     * Executor service, with event loop threads.
+     */
+    private final transient ExecutorService selectors;
+
+    /**
+     * Executor service, with workers.
+     */
+    private final transient ExecutorService workers;
+
+    /**
+     * HTTP processor, shared by all workers.
+     */
+    private final transient HttpThread thread;
+
+    /**
+     * Deadlines of connections.
+     */
+    private final transient Deadlines deadlines;
+
+    /**
+     * Admission of requests.
+     */
+    private final transient Admission admission;
+
+    /**
+     * Number of the next loop to give a connection to.
+     */
+    private final transient AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Public ctor.
+     * @param hosts Hosts
+     * @param port Port number
+     * @throws IOException If can't initialize
+     */
+    NioFacade(@NotNull final Hosts hosts, final int port)
+        throws IOException {
+        this(
+            hosts, port,
+            new Deadlines(TimeUnit.SECONDS.toMillis((long) HttpThread.IDLE))
+        );
+    }
+
+    /**
+     * Public ctor.
+     * @param hosts Hosts
+     * @param port Port number
+     * @param dlns Deadlines of connections
+     * @throws IOException If can't initialize
+     */
+    NioFacade(@NotNull final Hosts hosts, final int port,
+        @NotNull final Deadlines dlns) throws IOException {
+        this(
+            hosts, port, dlns, new Admission(HttpFacade.BUDGET),
+            NioFacade.LOOPS
+        );
+    }
+
+    /**
+     * Public ctor.
+     * @param hosts Hosts
+     * @param port Port number
+     * @param dlns Deadlines of connections
+     * @param adm Admission of requests
+     * @param count How many event loops to run
+     * @throws IOException If can't initialize
+     * @checkstyle ParameterNumber (4 lines)
+     */
+    NioFacade(@NotNull final Hosts hosts, final int port,
+        @NotNull final Deadlines dlns, @NotNull final Admission adm,
+        final int count) throws IOException {
+        this.deadlines = dlns;
+        this.admission = adm;
+        this.server = ServerSocketChannel.open();
+        this.server.socket().bind(new InetSocketAddress(port));
+        this.server.configureBlocking(false);
+        this.thread = new HttpThread(
+            hosts, HttpThread.IDLE, HttpThread.REQUESTS, adm, dlns
+        );
+        this.selectors = Executors.newFixedThreadPool(
+            count, new VerboseThreads("loop")
+        );
+        this.workers = new ThreadPoolExecutor(
+            NioFacade.WORKERS, NioFacade.WORKERS,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(NioFacade.QUEUE),
+            new VerboseThreads("worker")
+        );
+        this.loops = new NioFacade.Loop[count];
+        for (int idx = 0; idx < this.loops.length; ++idx) {
+            this.loops[idx] = new NioFacade.Loop(Selector.open());
+        }
+    }
+
+    /**
+     * Start listening to the port.
+     * @throws IOException If fails to register the server channel
+     */
+    public void listen() throws IOException {
+        this.server.register(this.loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (final NioFacade.Loop loop : this.loops) {
+            this.selectors.submit(new VerboseRunnable(loop, true, false));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final NioFacade.Loop loop : this.loops) {
+            loop.stop();
+        }
+        try {
+            HttpFacade.shutdown(this.selectors);
+            HttpFacade.shutdown(this.workers);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        this.thread.close();
+        this.server.close();
+    }
+
+    /**
+     * Find the end of HTTP request head in the buffer.
+     * @param buffer The buffer with bytes read so far
+     * @return Position right after the empty line, or -1 if not found
+     */
+    private static int end(final ByteBuffer buffer) {
+        final byte[] data = buffer.array();
+        int end = -1;
+        for (int pos = 1; pos < buffer.position(); ++pos) {
+            if (data[pos] == '\n' && (data[pos - 1] == '\n'
+                || pos > 1 && data[pos - 1] == '\r' && data[pos - 2] == '\n')) {
+                end = pos + 1;
+                break;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Event loop, with its own selector.
+     */
+    private final class Loop implements Runnable {
+        /**
+         * The selector.
+         */
+        private final transient Selector selector;
+        /**
+         * Freshly accepted channels, to be registered in this loop.
+         */
+        private final transient Queue<SocketChannel> fresh =
+            new ConcurrentLinkedQueue<SocketChannel>();
+        /**
+         * Connections with changed state, to be refreshed in this loop.
+         */
+        private final transient Queue<NioFacade.Connection> changed =
+            new ConcurrentLinkedQueue<NioFacade.Connection>();
+        /**
+         * Connections waiting for their clients to consume output.
+         */
+        private final transient Set<NioFacade.Connection> waiting =
+            Collections.newSetFromMap(
+                new ConcurrentHashMap<NioFacade.Connection, Boolean>()
+            );
+        /**
+         * Is it stopped?
+         */
+        private transient volatile boolean stopped;
+        /**
+         * Public ctor.
+         * @param slctr The selector to use
+         */
+        Loop(final Selector slctr) {
+            this.selector = slctr;
+        }
+        @Override
+        public void run() {
+            try {
+                while (!this.stopped
+                    && !Thread.currentThread().isInterrupted()) {
+                    this.cycle();
+                }
+            } finally {
+                for (final SelectionKey key : this.selector.keys()) {
+                    if (key.attachment() == null) {
+                        IOUtils.closeQuietly(key.channel());
+                    } else {
+                        NioFacade.Connection.class.cast(key.attachment())
+                            .close();
+                    }
+                }
+                IOUtils.closeQuietly(this.selector);
+            }
+        }
+        /**
+         * Stop the loop, closing all its connections.
+         */
+        public void stop() {
+            this.stopped = true;
+            this.selector.wakeup();
+        }
+        /**
+         * Take this channel into the loop.
+         * @param channel The channel just accepted
+         */
+        public void adopt(final SocketChannel channel) {
+            this.fresh.add(channel);
+            this.selector.wakeup();
+        }
+        /**
+         * This connection has something new to do.
+         * @param connection The connection
+         */
+        public void changed(final NioFacade.Connection connection) {
+            this.changed.add(connection);
+            this.selector.wakeup();
+        }
+        /**
+         * Run one cycle of the loop.
+         *
+         * <p>Errors are logged and don't stop the loop. After an error
+         * the loop pauses for {@link NioFacade#PAUSE} milliseconds, so that
+         * a persistent one (like a lack of file descriptors for accepted
+         * connections) doesn't make it spin.
+         */
+        private void cycle() {
+            try {
+                this.selector.select(NioFacade.PAUSE);
+                this.register();
+                this.refresh();
+                this.process();
+                this.expire();
+            } catch (final CancelledKeyException ex) {
+                Logger.debug(this, "#cycle(): %s", ex);
+            } catch (final IOException ex) {
+                Logger.error(this, "#cycle(): %s", ex);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(NioFacade.PAUSE);
+                } catch (final InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        /**
+         * Register all fresh channels in the selector.
+         */
+        private void register() {
+            while (true) {
+                final SocketChannel channel = this.fresh.poll();
+                if (channel == null) {
+                    break;
+                }
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    final SelectionKey key = channel.register(
+                        this.selector, SelectionKey.OP_READ
+                    );
+                    key.attach(new NioFacade.Connection(this, key));
+                } catch (final IOException ex) {
+                    Logger.warn(this, "#register(): %s", ex);
+                    IOUtils.closeQuietly(channel);
+                }
+            }
+        }
+        /**
+         * Refresh interests of all changed connections.
+         */
+        private void refresh() {
+            while (true) {
+                final NioFacade.Connection connection = this.changed.poll();
+                if (connection == null) {
+                    break;
+                }
+                connection.refresh();
+            }
+        }
+        /**
+         * Process all selected keys.
+         * @throws IOException If fails to accept
+         */
+        private void process() throws IOException {
+            final Iterator<SelectionKey> keys =
+                this.selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    this.accept();
+                    continue;
+                }
+                final NioFacade.Connection connection =
+                    NioFacade.Connection.class.cast(key.attachment());
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.write();
+                }
+            }
+        }
+        /**
+         * Close connections waiting for their clients for too long.
+         */
+        private void expire() {
+            for (final NioFacade.Connection connection : this.waiting) {
+                connection.expire();
+            }
+        }
+        /**
+         * Accept all pending connections and distribute them among loops.
+         * @throws IOException If fails to accept
+         */
+        private void accept() throws IOException {
+            while (true) {
+                final SocketChannel channel = NioFacade.this.server.accept();
+                if (channel == null) {
+                    break;
+                }
+                NioFacade.this.loops[
+                    Math.abs(
+                        NioFacade.this.next.getAndIncrement()
+                            % NioFacade.this.loops.length
+                    )
+                ].adopt(channel);
+            }
+        }
+    }
+
+    /**
+     * Single connection, owned by one event loop.
+     *
+     * <p>All channel operations are done in the loop, while workers
+     * only read the response and append its bytes to the output queue.
+     * At most one worker is producing the response at any moment.
+     */
+    private final class Connection {
+        /**
+         * The loop we belong to.
+         */
+        private final transient NioFacade.Loop loop;
+        /**
+         * Selection key.
+         */
+        private final transient SelectionKey key;
+        /**
+         * Deadline of the connection.
+         */
+        private final transient Deadlines.Deadline deadline;
+        /**
+         * Bytes of request head read so far.
+         */
+        private transient ByteBuffer input =
+            ByteBuffer.allocate(NioFacade.FIRST);
+        /**
+         * Buffers waiting to be written to the channel.
+         */
+        private final transient Queue<ByteBuffer> output =
+            new LinkedList<ByteBuffer>();
+        /**
+         * Total amount of bytes in the output queue.
+         */
+        private transient long pending;
+        /**
+         * The response being read, or NULL.
+         */
+        private transient InputStream source;
+        /**
+         * A worker is preparing or reading the response.
+         */
+        private transient boolean producing;
+        /**
+         * Response is completely read.
+         */
+        private transient boolean done;
+        /**
+         * Deadline is armed for the client to consume output.
+         */
+        private transient boolean waiting;
+        /**
+         * A permit of admission is held.
+         */
+        private transient boolean permitted;
+        /**
+         * Channel is closed.
+         */
+        private transient boolean closed;
+        /**
+         * Public ctor.
+         * @param lop The loop
+         * @param sel The selection key
+         */
+        Connection(final NioFacade.Loop lop, final SelectionKey sel) {
+            this.loop = lop;
+            this.key = sel;
+            this.deadline = NioFacade.this.deadlines.watch(
+                this.channel().socket()
+            );
+            this.deadline.arm(Deadlines.Kind.HEAD);
+        }
+        /**
+         * Read from the channel, in the loop.
+         */
+        public void read() {
+            if (!this.input.hasRemaining()
+                && this.input.capacity() < NioFacade.HEAD) {
+                final ByteBuffer bigger = ByteBuffer.allocate(
+                    Math.min(this.input.capacity() * 2, NioFacade.HEAD)
+                );
+                this.input.flip();
+                bigger.put(this.input);
+                this.input = bigger;
+            }
+            int count;
+            try {
+                count = this.channel().read(this.input);
+            } catch (final IOException ex) {
+                count = -1;
+            }
+            if (count < 0) {
+                this.close();
+            } else {
+                final int end = NioFacade.end(this.input);
+                if (end > 0) {
+                    this.key.interestOps(0);
+                    this.deadline.disarm();
+                    this.serve(Arrays.copyOf(this.input.array(), end));
+                } else if (!this.input.hasRemaining()
+                    && this.input.capacity() == NioFacade.HEAD) {
+                    this.key.interestOps(0);
+                    this.deadline.disarm();
+                    this.reject();
+                }
+            }
+        }
+        /**
+         * Write to the channel as much as it accepts, in the loop.
+         */
+        public synchronized void write() {
+            long written = 0L;
+            boolean broken = false;
+            try {
+                while (!this.output.isEmpty()) {
+                    final ByteBuffer buffer = this.output.peek();
+                    written += (long) this.channel().write(buffer);
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                    this.output.poll();
+                }
+            } catch (final IOException ex) {
+                broken = true;
+            }
+            this.pending -= written;
+            if (broken) {
+                this.close();
+            } else {
+                this.drained(written);
+            }
+        }
+        /**
+         * Refresh interest in the channel, in the loop.
+         */
+        public synchronized void refresh() {
+            if (!this.key.isValid()) {
+                this.close();
+            } else if (!this.output.isEmpty()) {
+                this.key.interestOps(SelectionKey.OP_WRITE);
+            } else if (this.done) {
+                this.close();
+            }
+        }
+        /**
+         * Close it, if its client is too slow, in the loop.
+         */
+        public synchronized void expire() {
+            if (this.deadline.expired()) {
+                this.close();
+            }
+        }
+        /**
+         * Close it, in the loop, releasing the response, unless a worker
+         * is reading it now (the worker releases it then).
+         */
+        public synchronized void close() {
+            if (!this.closed) {
+                this.closed = true;
+                this.wake();
+                this.key.cancel();
+                IOUtils.closeQuietly(this.channel());
+                this.output.clear();
+                this.pending = 0L;
+                if (!this.producing) {
+                    this.release();
+                }
+                if (this.permitted) {
+                    this.permitted = false;
+                    NioFacade.this.admission.release();
+                }
+            }
+        }
+        /**
+         * Serve this request head, in a worker.
+         * @param head Bytes of HTTP request head
+         */
+        private void serve(final byte[] head) {
+            this.admit(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        HttpResponse response;
+                        try {
+                            response = NioFacade.this.thread.prepare(
+                                new ByteArrayInputStream(head)
+                            );
+                        } catch (final IOException ex) {
+                            response = new HttpException(
+                                HttpURLConnection.HTTP_BAD_REQUEST, ex
+                            ).response();
+                        }
+                        NioFacade.Connection.this.begin(response);
+                    }
+                }
+            );
+        }
+        /**
+         * Reject a request with a head which is too big, in a worker.
+         */
+        private void reject() {
+            this.admit(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        NioFacade.Connection.this.begin(
+                            new HttpException(
+                                HttpURLConnection.HTTP_BAD_REQUEST,
+                                "request head is too large"
+                            ).response()
+                        );
+                    }
+                }
+            );
+        }
+        /**
+         * Take a permit and give the task to a worker, in the loop, or
+         * answer with HTTP 503, if either of them is not available.
+         * @param task The task, which prepares a response
+         */
+        private synchronized void admit(final Runnable task) {
+            if (NioFacade.this.admission.acquire()) {
+                this.permitted = true;
+                if (!this.submit(task)) {
+                    this.busy();
+                }
+            } else {
+                this.busy();
+            }
+        }
+        /**
+         * Give the task to a worker, which produces the response.
+         * @param task The task
+         * @return TRUE if it is accepted by the workers
+         */
+        private synchronized boolean submit(final Runnable task) {
+            boolean submitted = true;
+            this.producing = true;
+            try {
+                NioFacade.this.workers.execute(
+                    new VerboseRunnable(task, true, false)
+                );
+            } catch (final RejectedExecutionException ex) {
+                Logger.warn(this, "#submit(): no free workers, %s", ex);
+                this.producing = false;
+                submitted = false;
+            }
+            return submitted;
+        }
+        /**
+         * Answer with a ready-made HTTP 503 response, in the loop.
+         */
+        private synchronized void busy() {
+            this.output.add(ByteBuffer.wrap(HttpFacade.BUSY));
+            this.pending += (long) HttpFacade.BUSY.length;
+            this.finish();
+        }
+        /**
+         * Start reading the response prepared, in a worker.
+         * @param response The response
+         */
+        private void begin(final HttpResponse response) {
+            try {
+                this.source = response.open();
+                this.produce();
+            } catch (final IOException ex) {
+                Logger.warn(this, "#begin(): %s", ex);
+                response.release();
+                this.finish();
+            }
+        }
+        /**
+         * Read the response into the output queue, in a worker, until it
+         * is read completely, or the client is too slow to consume it,
+         * or the connection is closed.
+         */
+        private void produce() {
+            final byte[] buffer = new byte[NioFacade.CHUNK];
+            try {
+                while (this.proceed()) {
+                    final int count = this.source.read(buffer);
+                    if (count < 0) {
+                        this.finish();
+                        break;
+                    }
+                    this.push(buffer, count);
+                }
+            } catch (final IOException ex) {
+                Logger.warn(this, "#produce(): %s", ex);
+                this.finish();
+            }
+        }
+        /**
+         * May the worker read the next chunk of the response? If not,
+         * the worker stops producing it.
+         * @return TRUE if it may
+         */
+        private synchronized boolean proceed() {
+            boolean proceed = false;
+            if (this.closed) {
+                this.release();
+            } else if (this.pending > NioFacade.HIGH) {
+                this.producing = false;
+                this.await();
+            } else {
+                proceed = true;
+            }
+            return proceed;
+        }
+        /**
+         * Append bytes to the output queue, in a worker.
+         * @param data The data
+         * @param len Length
+         */
+        private synchronized void push(final byte[] data, final int len) {
+            if (!this.closed) {
+                final boolean idle = this.output.isEmpty();
+                this.output.add(ByteBuffer.wrap(Arrays.copyOf(data, len)));
+                this.pending += (long) len;
+                if (idle) {
+                    this.loop.changed(this);
+                }
+            }
+        }
+        /**
+         * The response is read completely, or can't be read anymore.
+         */
+        private synchronized void finish() {
+            this.done = true;
+            this.release();
+            if (!this.closed) {
+                if (!this.output.isEmpty()) {
+                    this.await();
+                }
+                this.loop.changed(this);
+            }
+        }
+        /**
+         * Some output is written to the client, in the loop. The producer
+         * is resumed, if it stopped and there is room in the output queue.
+         * @param written How many bytes were written
+         */
+        private void drained(final long written) {
+            if (this.waiting && written > 0L) {
+                this.deadline.arm(Deadlines.Kind.BODY);
+            }
+            if (this.source != null && !this.producing && !this.done
+                && this.pending <= NioFacade.LOW) {
+                this.wake();
+                final boolean resumed = this.submit(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            NioFacade.Connection.this.produce();
+                        }
+                    }
+                );
+                if (!resumed) {
+                    this.close();
+                }
+            }
+            if (this.output.isEmpty() && !this.closed) {
+                if (this.done) {
+                    this.close();
+                } else {
+                    this.key.interestOps(0);
+                }
+            }
+        }
+        /**
+         * Start waiting for the client to consume output, with a deadline.
+         */
+        private void await() {
+            if (!this.waiting) {
+                this.waiting = true;
+                this.loop.waiting.add(this);
+            }
+            this.deadline.arm(Deadlines.Kind.BODY);
+        }
+        /**
+         * Stop waiting for the client.
+         */
+        private void wake() {
+            if (this.waiting) {
+                this.waiting = false;
+                this.loop.waiting.remove(this);
+            }
+            this.deadline.disarm();
+        }
+        /**
+         * Close the response, which is not read anymore.
+         */
+        private void release() {
+            this.producing = false;
+            IOUtils.closeQuietly(this.source);
+            this.source = null;
+        }
+        /**
+         * Get the channel.
+         * @return The channel
+         */
+        private SocketChannel channel() {
+            return SocketChannel.class.cast(this.key.channel());
+        }
+    }
+
+}
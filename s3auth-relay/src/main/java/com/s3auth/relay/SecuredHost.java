@@ -131,7 +131,8 @@ final class SecuredHost implements Host {
      */
     private Resource secured(final URI uri, final Range range)
         throws IOException {
-        if (!this.request.headers().containsKey(HttpHeaders.AUTHORIZATION)) {
+        final String auth = this.request.header(HttpHeaders.AUTHORIZATION);
+        if (auth == null) {
             throw new HttpException(
                 new HttpResponse()
                     .withStatus(HttpURLConnection.HTTP_UNAUTHORIZED)
@@ -139,16 +140,12 @@ final class SecuredHost implements Host {
                         HttpHeaders.WWW_AUTHENTICATE,
                         String.format(
                             "Basic realm=\"%s\"",
-                            this.request.headers().get(HttpHeaders.HOST)
-                                .iterator().next()
+                            this.request.header(HttpHeaders.HOST)
                         )
                     )
             );
         }
-        final Matcher matcher = SecuredHost.AUTH_PATTERN.matcher(
-            this.request.headers().get(HttpHeaders.AUTHORIZATION)
-                .iterator().next()
-        );
+        final Matcher matcher = SecuredHost.AUTH_PATTERN.matcher(auth);
         if (!matcher.matches()) {
             throw new HttpException(
                 HttpURLConnection.HTTP_BAD_REQUEST,
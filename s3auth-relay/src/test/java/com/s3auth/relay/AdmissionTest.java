@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.relay;
+
+import com.jcabi.aspects.Tv;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Admission}.
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ */
+public final class AdmissionTest {
+
+    /**
+     * Admission can limit the number of permits.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void limitsPermits() throws Exception {
+        final Admission admission = new Admission(2);
+        MatcherAssert.assertThat(admission.acquire(), Matchers.is(true));
+        MatcherAssert.assertThat(admission.acquire(), Matchers.is(true));
+        MatcherAssert.assertThat(admission.acquire(), Matchers.is(false));
+        admission.release();
+        MatcherAssert.assertThat(admission.acquire(), Matchers.is(true));
+    }
+
+    /**
+     * Admission can lower the limit when latency grows and raise it back
+     * when latency drops.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void adaptsLimitToLatency() throws Exception {
+        final Admission admission = new Admission(Tv.HUNDRED);
+        AdmissionTest.feed(admission, 1L);
+        MatcherAssert.assertThat(
+            admission.limit(), Matchers.equalTo(Tv.HUNDRED)
+        );
+        for (int idx = 0; idx < Tv.FIFTY; ++idx) {
+            AdmissionTest.feed(admission, Tv.TEN);
+        }
+        MatcherAssert.assertThat(
+            admission.limit(), Matchers.equalTo(Admission.MIN)
+        );
+        for (int idx = 0; idx < Tv.FIFTY; ++idx) {
+            AdmissionTest.feed(admission, 1L);
+        }
+        MatcherAssert.assertThat(
+            admission.limit(), Matchers.equalTo(Tv.HUNDRED)
+        );
+    }
+
+    /**
+     * Report one window of equal latencies.
+     * @param admission The admission
+     * @param millis Latency of every request, in milliseconds
+     */
+    private static void feed(final Admission admission, final long millis) {
+        for (int idx = 0; idx < Admission.WINDOW; ++idx) {
+            admission.sample(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.relay;
+
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test case for {@link Deadlines}.
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ */
+public final class DeadlinesTest {
+
+    /**
+     * Deadlines can close a socket when its deadline expires.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void closesSocketWhenExpired() throws Exception {
+        final Deadlines deadlines = new Deadlines(1L, 1L, 1L);
+        try {
+            final Socket socket = Mockito.mock(Socket.class);
+            final Deadlines.Deadline deadline = deadlines.watch(socket);
+            deadline.arm(Deadlines.Kind.IDLE);
+            TimeUnit.SECONDS.sleep(1L);
+            Mockito.verify(socket).close();
+            MatcherAssert.assertThat(deadline.expired(), Matchers.is(true));
+            MatcherAssert.assertThat(
+                deadlines.expired(Deadlines.Kind.IDLE),
+                Matchers.equalTo(1L)
+            );
+        } finally {
+            deadlines.close();
+        }
+    }
+
+    /**
+     * Deadlines can ignore disarmed and postponed deadlines.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void ignoresDisarmedDeadlines() throws Exception {
+        final Deadlines deadlines = new Deadlines(
+            TimeUnit.SECONDS.toMillis(1L), 1L, 1L
+        );
+        try {
+            final Socket socket = Mockito.mock(Socket.class);
+            final Deadlines.Deadline deadline = deadlines.watch(socket);
+            deadline.arm(Deadlines.Kind.BODY);
+            deadline.disarm();
+            for (int idx = 0; idx < 2; ++idx) {
+                deadline.arm(Deadlines.Kind.HEAD);
+                TimeUnit.MILLISECONDS.sleep(500L);
+            }
+            Mockito.verify(socket, Mockito.never()).close();
+            MatcherAssert.assertThat(deadline.expired(), Matchers.is(false));
+            TimeUnit.SECONDS.sleep(2L);
+            Mockito.verify(socket).close();
+            MatcherAssert.assertThat(
+                deadlines.expired(Deadlines.Kind.HEAD),
+                Matchers.equalTo(1L)
+            );
+        } finally {
+            deadlines.close();
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.relay;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.utils.DateUtils;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link HttpClock}.
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ */
+public final class HttpClockTest {
+
+    /**
+     * HttpClock can render Date header line.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void rendersDateHeader() throws Exception {
+        final HttpClock clock = new HttpClock();
+        final String line = new String(clock.line(), "ISO-8859-1");
+        MatcherAssert.assertThat(
+            line,
+            Matchers.allOf(
+                Matchers.startsWith("Date: "),
+                Matchers.endsWith(" GMT\r\n")
+            )
+        );
+        MatcherAssert.assertThat(
+            DateUtils.parseDate(clock.text()),
+            Matchers.notNullValue()
+        );
+    }
+
+    /**
+     * HttpClock can format and remember dates.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void formatsDates() throws Exception {
+        final HttpClock clock = new HttpClock();
+        final Date date = new Date(0L);
+        MatcherAssert.assertThat(
+            clock.format(date),
+            Matchers.equalTo("Thu, 01 Jan 1970 00:00:00 GMT")
+        );
+        MatcherAssert.assertThat(
+            clock.format(new Date(1L)),
+            Matchers.sameInstance(clock.format(date))
+        );
+    }
+
+    /**
+     * HttpClock can keep a popular date, while many other dates are
+     * formatted.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void keepsPopularDates() throws Exception {
+        final HttpClock clock = new HttpClock();
+        final Date popular = new Date(0L);
+        final String text = clock.format(popular);
+        for (int idx = 1; idx < HttpClock.MAX * 2; ++idx) {
+            clock.format(new Date(TimeUnit.SECONDS.toMillis(idx)));
+            MatcherAssert.assertThat(
+                clock.format(popular),
+                Matchers.sameInstance(text)
+            );
+        }
+    }
+
+}
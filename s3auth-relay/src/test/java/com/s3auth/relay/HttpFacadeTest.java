@@ -39,14 +39,20 @@ import com.s3auth.hosts.Hosts;
 import com.s3auth.hosts.Range;
 import com.s3auth.hosts.Resource;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriBuilder;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.utils.DateUtils;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
@@ -210,6 +216,33 @@ public final class HttpFacadeTest {
         }
     }
 
+    /**
+     * HttpFacade can respond with 404 to a request for an unknown host.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void respondsNotFoundToUnknownHost() throws Exception {
+        final Hosts hosts = Mockito.mock(Hosts.class);
+        Mockito.doThrow(new Hosts.NotFoundException("unknown"))
+            .when(hosts).find(Mockito.anyString());
+        final int port = PortMocker.reserve();
+        final HttpFacade facade = new HttpFacade(hosts, port);
+        try {
+            facade.listen();
+            final URI uri = UriBuilder
+                .fromUri(String.format("http://localhost:%d/", port))
+                .path("/b").build();
+            for (int idx = 0; idx < 2; ++idx) {
+                new JdkRequest(uri).fetch().as(RestResponse.class)
+                    .assertStatus(HttpURLConnection.HTTP_NOT_FOUND)
+                    .assertHeader("Connection", "close")
+                    .assertBody(Matchers.startsWith("host not found"));
+            }
+        } finally {
+            facade.close();
+        }
+    }
+
     /**
      * HttpFacade returns the Age header with the response.
      * @throws Exception If there is some problem inside
@@ -258,6 +291,290 @@ public final class HttpFacadeTest {
         }
     }
 
+    /**
+     * HttpFacade can queue connections over its limit and reject them
+     * when the queue is full.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void queuesAndRejectsConnectionsOverLimit() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Host host = Mockito.mock(Host.class);
+        Mockito.doAnswer(
+            new Answer<Resource>() {
+                @Override
+                public Resource answer(final InvocationOnMock inv)
+                    throws InterruptedException {
+                    latch.await();
+                    return new Resource.PlainText("done");
+                }
+            }
+        ).when(host).fetch(Mockito.any(URI.class), Mockito.any(Range.class));
+        final Hosts hosts = Mockito.mock(Hosts.class);
+        Mockito.doReturn(host).when(hosts).find(Mockito.anyString());
+        final int port = PortMocker.reserve();
+        final HttpFacade facade = new HttpFacade(hosts, port, 1);
+        final Socket busy = new Socket();
+        final Socket queued = new Socket();
+        try {
+            facade.listen();
+            busy.connect(new InetSocketAddress("localhost", port));
+            busy.getOutputStream().write(
+                "GET / HTTP/1.1\nHost: a\nConnection: close\n\n".getBytes()
+            );
+            busy.getOutputStream().flush();
+            queued.connect(new InetSocketAddress("localhost", port));
+            final URI uri = UriBuilder
+                .fromUri(String.format("http://localhost:%d/", port))
+                .path("/a").build();
+            new JdkRequest(uri)
+                .fetch().as(RestResponse.class)
+                .assertStatus(HttpURLConnection.HTTP_UNAVAILABLE)
+                .assertHeader("Retry-After", "5");
+            latch.countDown();
+            MatcherAssert.assertThat(
+                IOUtils.toString(busy.getInputStream()),
+                Matchers.endsWith("done")
+            );
+            queued.getOutputStream().write(
+                "GET / HTTP/1.1\nHost: a\nConnection: close\n\n".getBytes()
+            );
+            MatcherAssert.assertThat(
+                IOUtils.toString(queued.getInputStream()),
+                Matchers.endsWith("done")
+            );
+        } finally {
+            latch.countDown();
+            queued.close();
+            busy.close();
+            facade.close();
+        }
+    }
+
+    /**
+     * HttpFacade can serve many requests through one connection.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void keepsConnectionAlive() throws Exception {
+        final Host host = Mockito.mock(Host.class);
+        Mockito.doReturn(new Resource.PlainText("alive")).when(host)
+            .fetch(Mockito.any(URI.class), Mockito.any(Range.class));
+        final Hosts hosts = Mockito.mock(Hosts.class);
+        Mockito.doReturn(host).when(hosts).find(Mockito.anyString());
+        final int port = PortMocker.reserve();
+        final HttpFacade facade = new HttpFacade(
+            new HttpThread(hosts, 1, 2), port, HttpFacade.BUDGET
+        );
+        final Socket socket = new Socket();
+        try {
+            facade.listen();
+            socket.connect(new InetSocketAddress("localhost", port));
+            final String request = "GET /a HTTP/1.1\r\nHost: a\r\n\r\n";
+            socket.getOutputStream().write(
+                StringUtils.repeat(request, 3).getBytes()
+            );
+            socket.getOutputStream().flush();
+            final String output = IOUtils.toString(socket.getInputStream());
+            MatcherAssert.assertThat(
+                StringUtils.countMatches(output, "HTTP/1.1 200 "),
+                Matchers.equalTo(2)
+            );
+            MatcherAssert.assertThat(
+                output,
+                Matchers.allOf(
+                    Matchers.containsString("Connection: keep-alive"),
+                    Matchers.containsString("Connection: close"),
+                    Matchers.endsWith("alive")
+                )
+            );
+        } finally {
+            socket.close();
+            facade.close();
+        }
+    }
+
+    /**
+     * HttpFacade can serve a connection while another one is idle, even if
+     * only one request may be served at a time.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void servesOtherConnectionsWhileIdle() throws Exception {
+        final Host host = Mockito.mock(Host.class);
+        Mockito.doReturn(new Resource.PlainText("idle")).when(host)
+            .fetch(Mockito.any(URI.class), Mockito.any(Range.class));
+        final Hosts hosts = Mockito.mock(Hosts.class);
+        Mockito.doReturn(host).when(hosts).find(Mockito.anyString());
+        final int port = PortMocker.reserve();
+        final HttpFacade facade = new HttpFacade(
+            new HttpThread(hosts, Tv.THIRTY, Tv.HUNDRED), port, 1
+        );
+        final Socket socket = new Socket();
+        try {
+            facade.listen();
+            socket.connect(new InetSocketAddress("localhost", port));
+            final String request = "GET /a HTTP/1.1\r\nHost: a\r\n\r\n";
+            for (int idx = 0; idx < 2; ++idx) {
+                socket.getOutputStream().write(request.getBytes());
+                socket.getOutputStream().flush();
+                final StringBuilder output = new StringBuilder();
+                while (!output.toString().endsWith("idle")) {
+                    final int chr = socket.getInputStream().read();
+                    if (chr < 0) {
+                        break;
+                    }
+                    output.append((char) chr);
+                }
+                MatcherAssert.assertThat(
+                    output.toString(),
+                    Matchers.startsWith("HTTP/1.1 200 ")
+                );
+                new JdkRequest(
+                    UriBuilder
+                        .fromUri(String.format("http://localhost:%d/", port))
+                        .path("/b").build()
+                ).fetch().as(RestResponse.class)
+                    .assertStatus(HttpURLConnection.HTTP_OK);
+            }
+        } finally {
+            socket.close();
+            facade.close();
+        }
+    }
+
+    /**
+     * HttpFacade can close the connection after a request with a chunked
+     * body, without reading the body as the next request.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void closesConnectionAfterChunkedRequest() throws Exception {
+        final Host host = Mockito.mock(Host.class);
+        Mockito.doReturn(new Resource.PlainText("smuggled")).when(host)
+            .fetch(Mockito.any(URI.class), Mockito.any(Range.class));
+        final Hosts hosts = Mockito.mock(Hosts.class);
+        Mockito.doReturn(host).when(hosts).find(Mockito.anyString());
+        final int port = PortMocker.reserve();
+        final HttpFacade facade = new HttpFacade(hosts, port);
+        final Socket socket = new Socket();
+        try {
+            facade.listen();
+            socket.connect(new InetSocketAddress("localhost", port));
+            final String inner = "GET /b HTTP/1.1\r\nHost: a\r\n\r\n";
+            socket.getOutputStream().write(
+                new StringBuilder()
+                    .append("GET /a HTTP/1.1\r\nHost: a\r\n")
+                    .append("Transfer-Encoding: chunked\r\n\r\n")
+                    .append(Integer.toHexString(inner.length()))
+                    .append("\r\n").append(inner).append("\r\n0\r\n\r\n")
+                    .toString().getBytes()
+            );
+            socket.getOutputStream().flush();
+            final String output = IOUtils.toString(socket.getInputStream());
+            MatcherAssert.assertThat(
+                output,
+                Matchers.allOf(
+                    Matchers.startsWith("HTTP/1.1 501 "),
+                    Matchers.containsString("Connection: close"),
+                    Matchers.not(Matchers.containsString("smuggled"))
+                )
+            );
+        } finally {
+            socket.close();
+            facade.close();
+        }
+    }
+
+    /**
+     * HttpFacade can fetch pipelined requests in parallel and respond
+     * to them in order.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void respondsToPipelinedRequestsInOrder() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Host host = Mockito.mock(Host.class);
+        Mockito.doAnswer(
+            new Answer<Resource>() {
+                @Override
+                public Resource answer(final InvocationOnMock inv)
+                    throws InterruptedException {
+                    final String path = URI.class.cast(inv.getArguments()[0])
+                        .getPath();
+                    String text = path;
+                    if ("/first".equals(path)) {
+                        if (!latch.await(Tv.FIVE, TimeUnit.SECONDS)) {
+                            text = "sequential";
+                        }
+                    } else {
+                        latch.countDown();
+                    }
+                    return new Resource.PlainText(text);
+                }
+            }
+        ).when(host).fetch(Mockito.any(URI.class), Mockito.any(Range.class));
+        final Hosts hosts = Mockito.mock(Hosts.class);
+        Mockito.doReturn(host).when(hosts).find(Mockito.anyString());
+        final int port = PortMocker.reserve();
+        final HttpFacade facade = new HttpFacade(hosts, port);
+        final Socket socket = new Socket();
+        try {
+            facade.listen();
+            socket.connect(new InetSocketAddress("localhost", port));
+            socket.getOutputStream().write(
+                new StringBuilder()
+                    .append("GET /first HTTP/1.1\r\nHost: a\r\n\r\n")
+                    .append("GET /second HTTP/1.1\r\nHost: a\r\n\r\n")
+                    .append("GET /third HTTP/1.1\r\nHost: a\r\n")
+                    .append("Connection: close\r\n\r\n")
+                    .toString().getBytes()
+            );
+            socket.getOutputStream().flush();
+            MatcherAssert.assertThat(
+                IOUtils.toString(socket.getInputStream()),
+                Matchers.stringContainsInOrder(
+                    Arrays.asList("\n/first", "\n/second", "\n/third")
+                )
+            );
+        } finally {
+            socket.close();
+            facade.close();
+        }
+    }
+
+    /**
+     * HttpFacade can accept connections by many shards.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void acceptsConnectionsWithManyShards() throws Exception {
+        final Host host = Mockito.mock(Host.class);
+        Mockito.doThrow(new IllegalStateException("hello, shards!"))
+            .when(host)
+            .fetch(Mockito.any(URI.class), Mockito.any(Range.class));
+        final Hosts hosts = Mockito.mock(Hosts.class);
+        Mockito.doReturn(host).when(hosts).find(Mockito.anyString());
+        final int port = PortMocker.reserve();
+        final Admission admission = new Admission(HttpFacade.BUDGET);
+        final HttpFacade facade = new HttpFacade(
+            new HttpThread(
+                hosts, HttpThread.IDLE, HttpThread.REQUESTS, admission
+            ),
+            port, admission, Tv.FOUR
+        );
+        facade.listen();
+        try {
+            HttpFacadeTest.http(
+                UriBuilder
+                    .fromUri(String.format("http://localhost:%d/", port))
+                    .path("/b").build()
+            );
+        } finally {
+            facade.close();
+        }
+    }
+
     /**
      * Make HTTP request.
      * @param path URI to hit
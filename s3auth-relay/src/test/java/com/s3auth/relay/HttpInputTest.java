@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.relay;
+
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test case for {@link HttpInput}.
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ */
+public final class HttpInputTest {
+
+    /**
+     * HttpInput can read request heads one by one.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void readsHeadsOneByOne() throws Exception {
+        final HttpInput input = new HttpInput(
+            IOUtils.toInputStream("\r\nGET /a\r\nA: b\r\n\r\nGET /b\n\n")
+        );
+        MatcherAssert.assertThat(
+            new String(input.head()),
+            Matchers.equalTo("GET /a\r\nA: b\r\n")
+        );
+        MatcherAssert.assertThat(input.ready(), Matchers.is(true));
+        MatcherAssert.assertThat(
+            new String(input.head()),
+            Matchers.equalTo("GET /b\n")
+        );
+        MatcherAssert.assertThat(input.head(), Matchers.nullValue());
+    }
+
+    /**
+     * HttpInput can reject a head which is too large.
+     * @throws Exception If there is some problem inside
+     */
+    @Test(expected = HttpException.class)
+    public void rejectsTooLargeHead() throws Exception {
+        new HttpInput(
+            IOUtils.toInputStream(
+                String.format(
+                    "GET /%s HTTP/1.1\n\n",
+                    StringUtils.repeat('a', HttpInput.MAX)
+                )
+            )
+        ).head();
+    }
+
+    /**
+     * HttpInput can disarm the deadline when a head is rejected.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void disarmsDeadlineOfRejectedHead() throws Exception {
+        final Deadlines deadlines = new Deadlines(1L, 1L, 1L);
+        try {
+            final Socket socket = Mockito.mock(Socket.class);
+            final Deadlines.Deadline deadline = deadlines.watch(socket);
+            try {
+                new HttpInput(
+                    IOUtils.toInputStream("GET /incomplete"), deadline
+                ).head();
+                Assert.fail("incomplete head accepted");
+            } catch (final HttpException ex) {
+                MatcherAssert.assertThat(ex, Matchers.notNullValue());
+            }
+            TimeUnit.SECONDS.sleep(1L);
+            Mockito.verify(socket, Mockito.never()).close();
+            MatcherAssert.assertThat(deadline.expired(), Matchers.is(false));
+        } finally {
+            deadlines.close();
+        }
+    }
+
+}
@@ -29,6 +29,9 @@
  */
 package com.s3auth.relay;
 
+import com.s3auth.hosts.Range;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.Test;
@@ -88,4 +91,119 @@ public final class HttpRequestTest {
         );
     }
 
+    /**
+     * HttpRequest can detect whether the connection is persistent.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void detectsPersistentConnections() throws Exception {
+        MatcherAssert.assertThat(
+            HttpRequestMocker.toRequest("GET / HTTP/1.1\nHost:a\n\n")
+                .persistent(),
+            Matchers.is(true)
+        );
+        MatcherAssert.assertThat(
+            HttpRequestMocker.toRequest(
+                "GET / HTTP/1.1\nConnection: close\n\n"
+            ).persistent(),
+            Matchers.is(false)
+        );
+        MatcherAssert.assertThat(
+            HttpRequestMocker.toRequest("GET / HTTP/1.0\nHost:a\n\n")
+                .persistent(),
+            Matchers.is(false)
+        );
+        MatcherAssert.assertThat(
+            HttpRequestMocker.toRequest(
+                "GET / HTTP/1.0\nConnection: Keep-Alive\n\n"
+            ).persistent(),
+            Matchers.is(true)
+        );
+    }
+
+    /**
+     * HttpRequest can parse Range header.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void parsesRangeHeader() throws Exception {
+        final Range range = HttpRequestMocker.toRequest(
+            "GET / HTTP/1.1\r\nHost: a\r\nrange: bytes=100-200\r\n\r\n"
+        ).range();
+        MatcherAssert.assertThat(range.first(), Matchers.equalTo(100L));
+        MatcherAssert.assertThat(range.last(), Matchers.equalTo(200L));
+    }
+
+    /**
+     * HttpRequest can reject a request with broken headers.
+     * @throws Exception If there is some problem inside
+     */
+    @Test(expected = HttpException.class)
+    public void rejectsBrokenHeader() throws Exception {
+        HttpRequestMocker.toRequest("GET / HTTP/1.1\nHost a\n\n");
+    }
+
+    /**
+     * HttpRequest can reject a request with too many headers.
+     * @throws Exception If there is some problem inside
+     */
+    @Test(expected = HttpException.class)
+    public void rejectsTooManyHeaders() throws Exception {
+        HttpRequestMocker.toRequest(
+            String.format(
+                "GET / HTTP/1.1\n%s\n",
+                StringUtils.repeat("X-Test: a\n", HttpRequest.HEADERS + 1)
+            )
+        );
+    }
+
+    /**
+     * HttpRequest can reject a request with a body of unknown length.
+     * @throws Exception If there is some problem inside
+     */
+    @Test(expected = HttpException.class)
+    public void rejectsTransferEncoding() throws Exception {
+        HttpRequestMocker.toRequest(
+            "GET / HTTP/1.1\nHost: a\nTransfer-Encoding: chunked\n\n0\n\n"
+        );
+    }
+
+    /**
+     * HttpRequest can reject a request with many lengths of the body.
+     * @throws Exception If there is some problem inside
+     */
+    @Test(expected = HttpException.class)
+    public void rejectsManyContentLengths() throws Exception {
+        HttpRequestMocker.toRequest(
+            "GET / HTTP/1.1\nContent-Length: 1\nContent-Length: 2\n\nab"
+        );
+    }
+
+    /**
+     * HttpRequest can read consecutive requests from one input.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void readsConsecutiveRequests() throws Exception {
+        final HttpInput input = new HttpInput(
+            IOUtils.toInputStream(
+                new StringBuilder()
+                    .append("GET /a HTTP/1.1\r\nContent-Length: 4\r\n")
+                    .append("\r\nbodyGET /b HTTP/1.1\r\nHost: b\r\n\r\n")
+                    .toString()
+            )
+        );
+        MatcherAssert.assertThat(
+            new HttpRequest(input).requestUri().toString(),
+            Matchers.equalTo("/a")
+        );
+        final HttpRequest second = new HttpRequest(input);
+        MatcherAssert.assertThat(
+            second.requestUri().toString(),
+            Matchers.equalTo("/b")
+        );
+        MatcherAssert.assertThat(second.header("HOST"), Matchers.equalTo("b"));
+        MatcherAssert.assertThat(input.more(), Matchers.is(false));
+    }
+
 }
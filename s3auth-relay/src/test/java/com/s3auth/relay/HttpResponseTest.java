@@ -31,12 +31,17 @@ package com.s3auth.relay;
 
 import com.jcabi.log.VerboseRunnable;
 import com.s3auth.hosts.Resource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.concurrent.Callable;
@@ -48,6 +53,8 @@ import org.apache.commons.io.IOUtils;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 
 /**
  * Test case for {@link HttpResponse}.
@@ -72,7 +79,7 @@ public final class HttpResponseTest {
             ),
             Matchers.allOf(
                 Matchers.startsWith("HTTP/1.1 404"),
-                Matchers.containsString("\n\nhi!")
+                Matchers.containsString("\r\n\r\nhi!")
             )
         );
     }
@@ -100,6 +107,10 @@ public final class HttpResponseTest {
                 return content.getBytes().length;
             }
             @Override
+            public InputStream content() {
+                return new ByteArrayInputStream(content.getBytes());
+            }
+            @Override
             public int status() {
                 return HttpURLConnection.HTTP_OK;
             }
@@ -153,4 +164,116 @@ public final class HttpResponseTest {
         );
     }
 
+    /**
+     * HttpResponse can send the head together with the body.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void sendsHeadWithBodyInOneWrite() throws Exception {
+        final OutputStream stream = Mockito.mock(OutputStream.class);
+        new HttpResponse()
+            .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN)
+            .withHeader("X-Test", "\u00e9")
+            .withBody("body")
+            .send(stream);
+        final ArgumentCaptor<byte[]> data =
+            ArgumentCaptor.forClass(byte[].class);
+        final ArgumentCaptor<Integer> len =
+            ArgumentCaptor.forClass(Integer.class);
+        Mockito.verify(stream).write(
+            data.capture(), Mockito.eq(0), len.capture()
+        );
+        MatcherAssert.assertThat(
+            new String(data.getValue(), 0, len.getValue(), "ISO-8859-1"),
+            Matchers.allOf(
+                Matchers.startsWith("HTTP/1.1 200 OK\r\n"),
+                Matchers.containsString("Content-Type: text/plain\r\n"),
+                Matchers.containsString("X-Test: \u00e9\r\n"),
+                Matchers.endsWith("\r\n\r\nbody")
+            )
+        );
+    }
+
+    /**
+     * HttpResponse can encode headers with popular and unusual names.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void encodesHeaders() throws Exception {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        new HttpResponse()
+            .withHeader("Connection", "close")
+            .withHeader("X-Custom", "caf\u00e9 \u263a")
+            .withBody("")
+            .send(stream);
+        MatcherAssert.assertThat(
+            stream.toString("ISO-8859-1"),
+            Matchers.containsString(
+                "\r\nConnection: close\r\nX-Custom: caf\u00e9 ?\r\n"
+            )
+        );
+    }
+
+    /**
+     * HttpResponse can send pre-encoded header lines.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void sendsPreEncodedLines() throws Exception {
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.doReturn(HttpURLConnection.HTTP_OK).when(resource).status();
+        Mockito.doReturn(Arrays.asList("Accept-Ranges: bytes", "X-A: b"))
+            .when(resource).headers();
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        new HttpResponse()
+            .withLine(HttpResponse.line("Server", "test"))
+            .withBody(resource)
+            .send(stream);
+        MatcherAssert.assertThat(
+            stream.toString("ISO-8859-1"),
+            Matchers.equalTo(
+                // @checkstyle LineLength (1 line)
+                "HTTP/1.1 200 OK\r\nServer: test\r\nAccept-Ranges: bytes\r\nX-A: b\r\n\r\n"
+            )
+        );
+    }
+
+    /**
+     * HttpResponse can be opened for reading, with the same bytes as sent.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void opensTheSameBytesAsSent() throws Exception {
+        final HttpResponse response = new HttpResponse()
+            .withStatus(HttpURLConnection.HTTP_NOT_FOUND)
+            .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN)
+            .withBody("no such object");
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        response.send(stream);
+        final InputStream input = response.open();
+        try {
+            MatcherAssert.assertThat(
+                IOUtils.toByteArray(input),
+                Matchers.equalTo(stream.toByteArray())
+            );
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * HttpResponse can release a body which is not going to be sent.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void releasesBodyNotSent() throws Exception {
+        final Resource resource = Mockito.mock(
+            Resource.class,
+            Mockito.withSettings().extraInterfaces(Closeable.class)
+        );
+        Mockito.doReturn(HttpURLConnection.HTTP_OK).when(resource).status();
+        new HttpResponse().withBody(resource).release();
+        Closeable.class.cast(Mockito.verify(resource)).close();
+    }
+
 }
@@ -85,4 +85,20 @@ public final class LocalHostTest {
         );
     }
 
+    /**
+     * LocalHost can report statistics of the relay.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void reportsStatistics() throws Exception {
+        MatcherAssert.assertThat(
+            ResourceMocker.toString(
+                new LocalHost("expired IDLE deadlines: 1").fetch(
+                    URI.create("/stats"), Range.ENTIRE
+                )
+            ),
+            Matchers.equalTo("expired IDLE deadlines: 1")
+        );
+    }
+
 }
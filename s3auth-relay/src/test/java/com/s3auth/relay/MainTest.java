@@ -45,6 +45,16 @@ import org.junit.Test;
  */
 public final class MainTest {
 
+    /**
+     * Main can reject keep-alive options of NIO transport, which has no
+     * keep-alive.
+     * @throws Exception If there is some problem inside
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsKeepAliveOptionsWithNio() throws Exception {
+        Main.main(new String[] {"-p", "80", "--nio", "--requests", "5"});
+    }
+
     /**
      * Main can start and listen on port.
      * @throws Exception If there is some problem inside
@@ -0,0 +1,291 @@
+/**
+ * Copyright (c) 2012, s3auth.com
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met: 1) Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer. 2) Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided
+ * with the distribution. 3) Neither the name of the s3auth.com nor
+ * the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+ * NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.s3auth.relay;
+
+import com.rexsl.test.request.JdkRequest;
+import com.rexsl.test.response.RestResponse;
+import com.s3auth.hosts.Host;
+import com.s3auth.hosts.Hosts;
+import com.s3auth.hosts.Range;
+import com.s3auth.hosts.Resource;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriBuilder;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test case for {@link NioFacade}.
+ * @author Yegor Bugayenko (yegor@tpc2.com)
+ * @version $Id$
+ * @checkstyle MultipleStringLiteralsCheck (500 lines)
+ * @checkstyle MagicNumberCheck (500 lines)
+ */
+public final class NioFacadeTest {
+
+    /**
+     * NioFacade can serve a resource.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void servesResource() throws Exception {
+        final String body = "hello, nio!";
+        final int port = PortMocker.reserve();
+        final NioFacade facade = new NioFacade(NioFacadeTest.hosts(body), port);
+        try {
+            facade.listen();
+            new JdkRequest(NioFacadeTest.uri(port))
+                .header(HttpHeaders.ACCEPT, MediaType.TEXT_PLAIN)
+                .fetch().as(RestResponse.class)
+                .assertStatus(HttpURLConnection.HTTP_OK)
+                .assertBody(Matchers.equalTo(body));
+        } finally {
+            facade.close();
+        }
+    }
+
+    /**
+     * NioFacade can stream a resource bigger than its output buffer.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void streamsLargeResource() throws Exception {
+        final String body = RandomStringUtils.randomAlphanumeric(1024 * 1024);
+        final int port = PortMocker.reserve();
+        final NioFacade facade = new NioFacade(NioFacadeTest.hosts(body), port);
+        try {
+            facade.listen();
+            new JdkRequest(NioFacadeTest.uri(port))
+                .fetch().as(RestResponse.class)
+                .assertStatus(HttpURLConnection.HTTP_OK)
+                .assertBody(Matchers.equalTo(body));
+        } finally {
+            facade.close();
+        }
+    }
+
+    /**
+     * NioFacade can reject a request with a head which is too large.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void rejectsTooLargeRequestHead() throws Exception {
+        final int port = PortMocker.reserve();
+        final NioFacade facade = new NioFacade(NioFacadeTest.hosts(""), port);
+        try {
+            facade.listen();
+            final Socket socket = new Socket("localhost", port);
+            try {
+                final OutputStream output = socket.getOutputStream();
+                output.write(
+                    String.format(
+                        "GET /%s HTTP/1.1\r\n",
+                        StringUtils.repeat('x', 16 * 1024 - 16)
+                    ).getBytes()
+                );
+                output.flush();
+                final InputStream input = socket.getInputStream();
+                MatcherAssert.assertThat(
+                    IOUtils.toString(input),
+                    Matchers.startsWith("HTTP/1.1 400 ")
+                );
+            } finally {
+                socket.close();
+            }
+        } finally {
+            facade.close();
+        }
+    }
+
+    /**
+     * NioFacade can close a connection which doesn't send its request head
+     * in time, and report it in statistics.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void closesConnectionWithSlowRequestHead() throws Exception {
+        final int port = PortMocker.reserve();
+        final NioFacade facade = new NioFacade(
+            NioFacadeTest.hosts(""), port, new Deadlines(200L, 200L, 200L)
+        );
+        try {
+            facade.listen();
+            final Socket socket = new Socket("localhost", port);
+            try {
+                socket.setSoTimeout(10000);
+                final OutputStream output = socket.getOutputStream();
+                output.write("GET /a HTTP/1.1\r\n".getBytes());
+                output.flush();
+                MatcherAssert.assertThat(
+                    socket.getInputStream().read(),
+                    Matchers.equalTo(-1)
+                );
+            } finally {
+                socket.close();
+            }
+            final Socket stats = new Socket("localhost", port);
+            try {
+                stats.setSoTimeout(10000);
+                stats.getOutputStream().write(
+                    "GET /stats HTTP/1.1\r\nHost: relay.s3auth.com\r\n\r\n"
+                        .getBytes()
+                );
+                MatcherAssert.assertThat(
+                    IOUtils.toString(stats.getInputStream()),
+                    Matchers.containsString("expired HEAD deadlines: 1")
+                );
+            } finally {
+                stats.close();
+            }
+        } finally {
+            facade.close();
+        }
+    }
+
+    /**
+     * NioFacade can answer with HTTP 503, when admission gives no permit.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void answersBusyWithoutPermit() throws Exception {
+        final int port = PortMocker.reserve();
+        final NioFacade facade = new NioFacade(
+            NioFacadeTest.hosts("free"), port,
+            new Deadlines(1000L), new Admission(0), 1
+        );
+        try {
+            facade.listen();
+            new JdkRequest(NioFacadeTest.uri(port))
+                .fetch().as(RestResponse.class)
+                .assertStatus(HttpURLConnection.HTTP_UNAVAILABLE);
+        } finally {
+            facade.close();
+        }
+    }
+
+    /**
+     * NioFacade can close a connection, which doesn't consume a large
+     * response in time, and release its admission permit.
+     * @throws Exception If there is some problem inside
+     */
+    @Test
+    public void closesConnectionOfSlowReader() throws Exception {
+        final int port = PortMocker.reserve();
+        final NioFacade facade = new NioFacade(
+            NioFacadeTest.hosts(StringUtils.repeat('x', 8 * 1024 * 1024)),
+            port, new Deadlines(200L, 200L, 200L), new Admission(1), 1
+        );
+        try {
+            facade.listen();
+            final Socket socket = new Socket();
+            try {
+                socket.setReceiveBufferSize(1024);
+                socket.connect(new InetSocketAddress("localhost", port));
+                socket.getOutputStream().write(
+                    "GET /a HTTP/1.1\r\nHost: a\r\n\r\n".getBytes()
+                );
+                String stats = "";
+                for (int attempt = 0; attempt < 60; ++attempt) {
+                    TimeUnit.MILLISECONDS.sleep(500L);
+                    stats = NioFacadeTest.stats(port);
+                    if (stats.contains("expired BODY deadlines: 1")) {
+                        break;
+                    }
+                }
+                MatcherAssert.assertThat(
+                    stats, Matchers.containsString("expired BODY deadlines: 1")
+                );
+            } finally {
+                socket.close();
+            }
+        } finally {
+            facade.close();
+        }
+    }
+
+    /**
+     * Fetch statistics of the facade.
+     * @param port Port number
+     * @return Entire HTTP response
+     * @throws Exception If there is some problem inside
+     */
+    private static String stats(final int port) throws Exception {
+        final Socket socket = new Socket("localhost", port);
+        try {
+            socket.setSoTimeout(10000);
+            socket.getOutputStream().write(
+                "GET /stats HTTP/1.1\r\nHost: relay.s3auth.com\r\n\r\n"
+                    .getBytes()
+            );
+            return IOUtils.toString(socket.getInputStream());
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Make hosts that return the given text for any URI.
+     * @param text The text to return
+     * @return Hosts
+     * @throws Exception If there is some problem inside
+     */
+    private static Hosts hosts(final String text) throws Exception {
+        final Host host = Mockito.mock(Host.class);
+        Mockito.doReturn(new Resource.PlainText(text)).when(host)
+            .fetch(Mockito.any(URI.class), Mockito.any(Range.class));
+        final Hosts hosts = Mockito.mock(Hosts.class);
+        Mockito.doReturn(host).when(hosts).find(Mockito.anyString());
+        return hosts;
+    }
+
+    /**
+     * Make URI of the facade.
+     * @param port Port number
+     * @return URI
+     */
+    private static URI uri(final int port) {
+        return UriBuilder
+            .fromUri(String.format("http://localhost:%d/", port))
+            .path("/a").build();
+    }
+
+}